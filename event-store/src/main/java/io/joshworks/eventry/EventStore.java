@@ -27,13 +27,19 @@ import io.joshworks.fstore.log.appender.LogAppender;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -41,17 +47,25 @@ public class EventStore implements Closeable {
 
     //TODO expose
     private static final int LRU_CACHE_SIZE = 1000000;
+    private static final String WRITER_THREAD = "event-writer";
 
     private final TableIndex index;
     private final Streams streams;
     private final EventLog eventLog;
+    private final EventWriter writer;
+    //flushes completed in background, the IndexFlushed marker is appended by the writer thread
+    private final Queue<TableIndex.FlushInfo> completedFlushes = new ConcurrentLinkedQueue<>();
 
     private EventStore(File rootDir) {
+        //no scavenging (RecordCleanup) yet: merging log segments changes the position of every record after them
+        //and index entries can't be redirected until the log exposes its segment addressing
         this.eventLog = new EventLog(LogAppender.builder(rootDir, new EventSerializer()).segmentSize((int) Size.MEGABYTE.toBytes(200)).disableCompaction());
-        this.index = new TableIndex(rootDir);
+        this.index = new TableIndex(rootDir, TableIndex.DEFAULT_FLUSH_THRESHOLD, TableIndex.DEFAULT_USE_COMPRESSION, completedFlushes::add);
         this.streams = new Streams(LRU_CACHE_SIZE, index::version);
+        this.index.tombstones(streams::tombstones);
         this.loadIndex();
         this.loadStreams();
+        this.writer = new EventWriter(WRITER_THREAD, this::commit);
     }
 
     public static EventStore open(File rootDir) {
@@ -59,23 +73,38 @@ public class EventStore implements Closeable {
     }
 
 
+    //replayed forward, so versions of each stream reach the memtable in order and are appended in place
     private void loadIndex() {
-        try (LogIterator<EventRecord> iterator = eventLog.iterator(Direction.BACKWARD)) {
-
+        long flushedPosition = lastFlushedPosition();
+        try (LogIterator<EventRecord> iterator = flushedPosition < 0 ? eventLog.iterator(Direction.FORWARD) : eventLog.iterator(Direction.FORWARD, flushedPosition)) {
             while (iterator.hasNext()) {
-                EventRecord next = iterator.next();
                 long position = iterator.position();
-                if (next.isSystemEvent() && IndexFlushed.TYPE.equals(next.type)) {
-                    break;
+                EventRecord next = iterator.next();
+                if (position <= flushedPosition) {
+                    continue;
                 }
                 long streamHash = streams.hashOf(next.stream);
                 index.add(streamHash, next.version, position);
             }
-
         } catch (IOException e) {
             throw new RuntimeException("Failed to load memindex", e);
         }
+    }
 
+    //the flush marker is written after the flush completes, entries between the flushed position and the marker are not on disk
+    //only the tail of the log is read, up to the last marker
+    private long lastFlushedPosition() {
+        try (LogIterator<EventRecord> iterator = eventLog.iterator(Direction.BACKWARD)) {
+            while (iterator.hasNext()) {
+                EventRecord next = iterator.next();
+                if (next.isSystemEvent() && IndexFlushed.TYPE.equals(next.type)) {
+                    return IndexFlushed.from(next).logPosition;
+                }
+            }
+            return -1;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load memindex", e);
+        }
     }
 
     private void loadStreams() {
@@ -94,7 +123,7 @@ public class EventStore implements Closeable {
             } else if(StreamDeleted.TYPE.equals(event.type)) {
                 StreamDeleted deleted = StreamDeleted.from(event);
                 long hash = streams.hashOf(deleted.stream);
-                streams.remove(hash);
+                streams.delete(hash, deleted.versionAtDeletion);
             } else {
                 //unrecognized event
             }
@@ -118,11 +147,12 @@ public class EventStore implements Closeable {
         long hash = streams.hashOf(name);
         StreamMetadata streamMetadata = new StreamMetadata(name, hash, System.currentTimeMillis(), maxAge, maxCount, permissions, metadata);
 
-        EventRecord eventRecord = StreamCreated.create(streamMetadata);
-        this.appendSystemEvent(eventRecord);
-        streams.create(streamMetadata);
-
-        return streamMetadata;
+        return write(() -> {
+            EventRecord eventRecord = StreamCreated.create(streamMetadata);
+            this.appendSystemEvent(eventRecord);
+            streams.create(streamMetadata);
+            return streamMetadata;
+        });
     }
 
     public List<StreamInfo> streamsMetadata() {
@@ -225,7 +255,7 @@ public class EventStore implements Closeable {
             event = get(event.stream, event.version);
         }
         EventRecord linkTo = LinkTo.create(stream, event);
-        return this.appendSystemEvent(linkTo);
+        return write(() -> this.appendSystemEvent(linkTo));
     }
 
     public void emit(String stream, EventRecord event) {
@@ -281,10 +311,131 @@ public class EventStore implements Closeable {
     }
 
     public EventRecord append(EventRecord event, int expectedVersion) {
-        validateEvent(event);
+        return await(appendAsync(event, expectedVersion));
+    }
 
-        StreamMetadata metadata = getOrCreateStream(event.stream);
-        return append(metadata, event, expectedVersion);
+    public CompletableFuture<EventRecord> appendAsync(EventRecord event) {
+        return appendAsync(event, IndexEntry.NO_VERSION);
+    }
+
+    //completes once the event is written to the log and index, callbacks run on the writer thread and must not block
+    //never throws, invalid events and a closed store complete the future exceptionally
+    public CompletableFuture<EventRecord> appendAsync(EventRecord event, int expectedVersion) {
+        try {
+            validateEvent(event);
+            return submit(() -> {
+                StreamMetadata metadata = getOrCreateStream(event.stream);
+                return append(metadata, event, expectedVersion);
+            });
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public List<EventRecord> appendAll(List<EventRecord> events) {
+        Objects.requireNonNull(events, "Events must be provided");
+        for (EventRecord event : events) {
+            validateEvent(event);
+        }
+        return write(() -> appendAllInternal(events));
+    }
+
+    private List<EventRecord> appendAllInternal(List<EventRecord> events) {
+        index.checkCapacity(); //before any version is assigned
+        List<EventRecord> records = new ArrayList<>(events.size());
+        for (EventRecord event : events) {
+            StreamMetadata metadata = getOrCreateStream(event.stream);
+            long streamHash = checkHash(metadata, event);
+            int version = streams.tryIncrementVersion(streamHash, IndexEntry.NO_VERSION);
+            records.add(new EventRecord(event.stream, event.type, version, System.currentTimeMillis(), event.data, event.metadata));
+        }
+        return appendBatch(records);
+    }
+
+    //all events must belong to the same stream, the first event is expected to be written at 'expectedVersion + 1'
+    public List<EventRecord> appendAll(List<EventRecord> events, int expectedVersion) {
+        Objects.requireNonNull(events, "Events must be provided");
+        if (events.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String stream = events.get(0).stream;
+        for (EventRecord event : events) {
+            validateEvent(event);
+            if (!stream.equals(event.stream)) {
+                throw new IllegalArgumentException("All events must belong to the same stream: " + stream);
+            }
+        }
+        return write(() -> appendAllInternal(events, expectedVersion));
+    }
+
+    private List<EventRecord> appendAllInternal(List<EventRecord> events, int expectedVersion) {
+        index.checkCapacity(); //before any version is assigned
+        String stream = events.get(0).stream;
+        StreamMetadata metadata = getOrCreateStream(stream);
+        List<EventRecord> records = new ArrayList<>(events.size());
+        for (int i = 0; i < events.size(); i++) {
+            EventRecord event = events.get(i);
+            long streamHash = checkHash(metadata, event);
+            int expected = expectedVersion < 0 ? IndexEntry.NO_VERSION : expectedVersion + i;
+            int version = streams.tryIncrementVersion(streamHash, expected);
+            records.add(new EventRecord(event.stream, event.type, version, System.currentTimeMillis(), event.data, event.metadata));
+        }
+        return appendBatch(records);
+    }
+
+    //runs the task on the writer thread, which is the only one allowed to assign versions and write to the log and index
+    private <T> T write(Supplier<T> task) {
+        return await(submit(task));
+    }
+
+    //latency as seen by the caller, including the time in the writer queue, index merges back off when it gets too high
+    private <T> CompletableFuture<T> submit(Supplier<T> task) {
+        long start = System.nanoTime();
+        CompletableFuture<T> future = writer.submit(task);
+        future.whenComplete((result, error) -> index.compactionThrottle().recordAppendLatency(System.nanoTime() - start));
+        return future;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    //versions must be already assigned, after checking the index capacity
+    private List<EventRecord> appendBatch(List<EventRecord> records) {
+        if (records.isEmpty()) {
+            return records;
+        }
+        long[] positions = eventLog.append(records);
+
+        List<IndexEntry> entries = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            EventRecord record = records.get(i);
+            entries.add(IndexEntry.of(streams.hashOf(record.stream), record.version, positions[i]));
+        }
+
+        index.addAll(entries);
+        return records;
+    }
+
+    //called by the writer thread once per batch
+    private void commit() {
+        appendFlushMarkers();
+        eventLog.flush();
+    }
+
+    private void appendFlushMarkers() {
+        TableIndex.FlushInfo flushInfo;
+        while ((flushInfo = completedFlushes.poll()) != null) {
+            var indexFlushedEvent = IndexFlushed.create(flushInfo.logPosition, flushInfo.timeTaken, flushInfo.entries, flushInfo.trigger.name());
+            this.appendSystemEvent(indexFlushedEvent);
+        }
     }
 
     private EventRecord appendSystemEvent(EventRecord event) {
@@ -293,29 +444,31 @@ public class EventStore implements Closeable {
     }
 
     private EventRecord append(StreamMetadata streamMetadata, EventRecord event, int expectedVersion) {
-        if (streamMetadata == null) {
-            throw new IllegalArgumentException("EventStream cannot be null");
-        }
-        long streamHash = streams.hashOf(event.stream);
-        if (streamMetadata.name.equals(event.stream) && streamMetadata.hash != streamHash) {
-            //TODO improve ??
-            throw new IllegalStateException("Hash collision of stream: " + event.stream + " with existing name: " + streamMetadata.name);
-        }
+        long streamHash = checkHash(streamMetadata, event);
 
+        index.checkCapacity(); //before the version is assigned
         int version = streams.tryIncrementVersion(streamHash, expectedVersion);
 
         var record = new EventRecord(event.stream, event.type, version, System.currentTimeMillis(), event.data, event.metadata);
 
         long position = eventLog.append(record);
-        var flushInfo = index.add(streamHash, version, position);
-        if (flushInfo != null) {
-            var indexFlushedEvent = IndexFlushed.create(position, flushInfo.timeTaken, flushInfo.entries);
-            this.appendSystemEvent(indexFlushedEvent);
-        }
+        index.add(streamHash, version, position);
 
         return record;
     }
 
+    private long checkHash(StreamMetadata streamMetadata, EventRecord event) {
+        if (streamMetadata == null) {
+            throw new IllegalArgumentException("EventStream cannot be null");
+        }
+        long streamHash = streams.hashOf(event.stream);
+        if (streamMetadata.name.equals(event.stream) && streamMetadata.hash != streamHash) {
+            //TODO improve ??
+            throw new IllegalStateException("Hash collision of stream: " + event.stream + " with existing name: " + streamMetadata.name);
+        }
+        return streamHash;
+    }
+
     private StreamMetadata getOrCreateStream(String stream) {
         long streamHash = streams.hashOf(stream);
         return streams.get(streamHash).orElseGet(() -> {
@@ -375,6 +528,13 @@ public class EventStore implements Closeable {
 
     @Override
     public void close() {
+        //makes sure the marker of any in progress flush is written before closing
+        write(() -> {
+            index.awaitPendingFlush();
+            appendFlushMarkers();
+            return null;
+        });
+        writer.close();
         index.close();
         eventLog.close();
         streams.close();
@@ -0,0 +1,181 @@
+package io.joshworks.eventry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Group commit writer: producers enqueue write tasks into a bounded queue, a single writer thread drains them in batches,
+ * runs each task, calls the commit action once per batch and only then completes the callers futures.
+ * Tasks submitted from the writer thread itself are executed inline.
+ */
+class EventWriter implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventWriter.class);
+
+    static final int DEFAULT_QUEUE_SIZE = 10000;
+    static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private final BlockingQueue<WriteTask<?>> queue;
+    private final int maxBatchSize;
+    private final Runnable commit;
+    private final Thread writerThread;
+    //set before the last drain of the queue, producers check it again once their task is enqueued
+    private volatile boolean closed;
+
+    EventWriter(String name, Runnable commit) {
+        this(name, DEFAULT_QUEUE_SIZE, DEFAULT_MAX_BATCH_SIZE, commit);
+    }
+
+    EventWriter(String name, int queueSize, int maxBatchSize, Runnable commit) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be greater than zero");
+        }
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.maxBatchSize = maxBatchSize;
+        this.commit = Objects.requireNonNull(commit, "Commit action must be provided");
+        this.writerThread = new Thread(this::run, name);
+        this.writerThread.start();
+    }
+
+    <R> CompletableFuture<R> submit(Supplier<R> task) {
+        Objects.requireNonNull(task, "Task must be provided");
+        if (Thread.currentThread() == writerThread) {
+            return runInline(task);
+        }
+        WriteTask<R> writeTask = new WriteTask<>(task);
+        try {
+            //closed is re-checked while waiting for space, the writer may stop while the queue is full
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("Writer is closed");
+                }
+                if (queue.offer(writeTask, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+            }
+            //enqueued after the last drain: nobody else will take it. If the writer got it, it's either run or failed there
+            if (closed && queue.remove(writeTask)) {
+                throw new IllegalStateException("Writer is closed");
+            }
+            return writeTask.future;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while enqueuing write", e);
+        }
+    }
+
+    private <R> CompletableFuture<R> runInline(Supplier<R> task) {
+        try {
+            return CompletableFuture.completedFuture(task.get());
+        } catch (Throwable e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void run() {
+        List<WriteTask<?>> batch = new ArrayList<>(maxBatchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                WriteTask<?> first = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                process(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Throwable e) {
+                logger.error("Failed to process write batch", e);
+            } finally {
+                batch.clear();
+            }
+        }
+        failPending();
+    }
+
+    private void process(List<WriteTask<?>> batch) {
+        for (WriteTask<?> task : batch) {
+            task.execute();
+        }
+        try {
+            commit.run();
+        } catch (Throwable e) {
+            for (WriteTask<?> task : batch) {
+                task.fail(e);
+            }
+            return;
+        }
+        for (WriteTask<?> task : batch) {
+            task.complete();
+        }
+    }
+
+    private void failPending() {
+        List<WriteTask<?>> pending = new ArrayList<>();
+        closed = true; //the writer may also stop when interrupted
+        queue.drainTo(pending);
+        for (WriteTask<?> task : pending) {
+            task.fail(new IllegalStateException("Writer is closed"));
+        }
+    }
+
+    int pending() {
+        return queue.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class WriteTask<R> {
+
+        private final Supplier<R> task;
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+        private R result;
+        private Throwable error;
+
+        private WriteTask(Supplier<R> task) {
+            this.task = task;
+        }
+
+        private void execute() {
+            try {
+                result = task.get();
+            } catch (Throwable e) {
+                error = e;
+            }
+        }
+
+        private void complete() {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        }
+
+        private void fail(Throwable e) {
+            future.completeExceptionally(error != null ? error : e);
+        }
+    }
+
+}
@@ -14,17 +14,20 @@ public class IndexFlushed {
     public final long logPosition;
     public final long timeTaken;
     public final int entries;
+    //FlushPolicy trigger that caused the flush, null for markers written before it was recorded
+    public final String trigger;
 
     public static final String TYPE = SYSTEM_PREFIX + "INDEX_FLUSHED";
 
-    private IndexFlushed(long logPosition, long timeTaken, int entries) {
+    private IndexFlushed(long logPosition, long timeTaken, int entries, String trigger) {
         this.logPosition = logPosition;
         this.timeTaken = timeTaken;
         this.entries = entries;
+        this.trigger = trigger;
     }
 
-    public static EventRecord create(long logPosition, long timeTaken, int entries) {
-        var indexFlushed = new IndexFlushed(logPosition, timeTaken, entries);
+    public static EventRecord create(long logPosition, long timeTaken, int entries, String trigger) {
+        var indexFlushed = new IndexFlushed(logPosition, timeTaken, entries, trigger);
         var data = serializer.toBytes(indexFlushed);
         return EventRecord.create(SystemStreams.INDEX, TYPE, data.array());
     }
@@ -0,0 +1,55 @@
+package io.joshworks.eventry.index;
+
+import io.joshworks.eventry.index.disk.IndexCompactor;
+import io.joshworks.fstore.log.appender.Config;
+
+/**
+ * Decides how disk segments are merged, chosen per store when the index is created.
+ * Merges are scheduled by the log appender: once a level holds the configured number of segments they are all merged
+ * into a single segment of the next level.
+ */
+public interface CompactionPolicy {
+
+    void configure(Config<IndexEntry> config, IndexCompactor compactor);
+
+    /**
+     * Size tiered: each merge combines segments of similar size, so an entry is rewritten once per level.
+     * Higher values give fewer rewrites (write amplification ~ log(flushes) / log(segmentsPerLevel)) at the cost of
+     * more segments to probe on reads.
+     */
+    static CompactionPolicy tiered(int segmentsPerLevel) {
+        if (segmentsPerLevel < 2) {
+            throw new IllegalArgumentException("At least two segments per level are required");
+        }
+        return new CompactionPolicy() {
+            @Override
+            public void configure(Config<IndexEntry> config, IndexCompactor compactor) {
+                config.compactionStrategy(compactor).maxSegmentsPerLevel(segmentsPerLevel);
+            }
+
+            @Override
+            public String toString() {
+                return "tiered(" + segmentsPerLevel + ")";
+            }
+        };
+    }
+
+    /**
+     * Segments are never merged, every entry is written exactly once.
+     * Suited to append only stores, lookups rely on the segment filters and stream directories to skip segments.
+     */
+    static CompactionPolicy appendOnly() {
+        return new CompactionPolicy() {
+            @Override
+            public void configure(Config<IndexEntry> config, IndexCompactor compactor) {
+                config.disableCompaction();
+            }
+
+            @Override
+            public String toString() {
+                return "appendOnly";
+            }
+        };
+    }
+
+}
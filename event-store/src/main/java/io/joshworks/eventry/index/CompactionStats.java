@@ -0,0 +1,60 @@
+package io.joshworks.eventry.index;
+
+import java.util.Collections;
+import java.util.SortedMap;
+
+public class CompactionStats {
+    public final String policy;
+    public final long merges;
+    //entries and bytes written by memtable flushes
+    public final long flushedEntries;
+    //entries and bytes read and written by merges
+    public final long entriesMerged;
+    public final long entriesWritten;
+    //entries of deleted or truncated streams removed by merges
+    public final long entriesDropped;
+    //merges that combined the input bloom filters instead of rebuilding the filter
+    public final long filtersMerged;
+    public final long bytesMerged;
+    public final long bytesWritten;
+    //level shape: number of segments and entries of each level
+    public final SortedMap<Integer, Integer> segmentsPerLevel;
+    public final SortedMap<Integer, Long> entriesPerLevel;
+
+    CompactionStats(String policy, long merges, long flushedEntries, long entriesMerged, long entriesWritten, long entriesDropped, long filtersMerged, long bytesMerged, long bytesWritten, SortedMap<Integer, Integer> segmentsPerLevel, SortedMap<Integer, Long> entriesPerLevel) {
+        this.policy = policy;
+        this.merges = merges;
+        this.flushedEntries = flushedEntries;
+        this.entriesMerged = entriesMerged;
+        this.entriesWritten = entriesWritten;
+        this.entriesDropped = entriesDropped;
+        this.filtersMerged = filtersMerged;
+        this.bytesMerged = bytesMerged;
+        this.bytesWritten = bytesWritten;
+        this.segmentsPerLevel = Collections.unmodifiableSortedMap(segmentsPerLevel);
+        this.entriesPerLevel = Collections.unmodifiableSortedMap(entriesPerLevel);
+    }
+
+    //entries written to disk per entry flushed, 1 means nothing was rewritten
+    public double writeAmplification() {
+        return flushedEntries == 0 ? 0 : (double) (flushedEntries + entriesWritten) / flushedEntries;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactionStats{" +
+                "policy=" + policy +
+                ", merges=" + merges +
+                ", flushedEntries=" + flushedEntries +
+                ", entriesMerged=" + entriesMerged +
+                ", entriesWritten=" + entriesWritten +
+                ", entriesDropped=" + entriesDropped +
+                ", filtersMerged=" + filtersMerged +
+                ", bytesMerged=" + bytesMerged +
+                ", bytesWritten=" + bytesWritten +
+                ", writeAmplification=" + writeAmplification() +
+                ", segmentsPerLevel=" + segmentsPerLevel +
+                ", entriesPerLevel=" + entriesPerLevel +
+                '}';
+    }
+}
@@ -0,0 +1,238 @@
+package io.joshworks.eventry.index;
+
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Paces background merges so they don't compete with the append path: merges report the bytes they write and are
+ * slowed down to the configured budget, paused while the append p99 latency or the flush backlog is above the thresholds,
+ * and at most maxConcurrentMerges of them run at once.
+ * Merge threads are owned by the log appender, this only bounds how many of them do work at the same time.
+ * Only index merges go through it for now, the event log has compaction disabled.
+ */
+public class CompactionThrottle {
+
+    public static final long UNLIMITED = 0;
+
+    public enum State {
+        IDLE, RUNNING, THROTTLED, BACKING_OFF
+    }
+
+    private static final int LATENCY_SAMPLES = 1024; //power of two
+    private static final long LATENCY_WINDOW_MILLIS = 1000;
+    private static final long BACKOFF_INTERVAL_MILLIS = 50;
+    //a merge is never paused longer than this at once, so compaction still progresses under sustained load
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    private final long bytesPerSecond;
+    private final long maxAppendP99Nanos;
+    private final long maxFlushBacklog;
+    private final int maxConcurrentMerges;
+    private final Semaphore merges;
+
+    //earliest time the next byte can be written, shared by all merges
+    private long nextWriteNanos = System.nanoTime();
+    private volatile long flushBacklog;
+    private volatile State state = State.IDLE;
+
+    private final AtomicLong latencyCount = new AtomicLong();
+    private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_SAMPLES);
+    private final AtomicLongArray latencyTimes = new AtomicLongArray(LATENCY_SAMPLES);
+    //reused by every p99 computation, guarded by this
+    private final long[] p99Samples = new long[LATENCY_SAMPLES];
+    private volatile long cachedP99Nanos;
+    private volatile long cachedP99Millis;
+
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder throttledMillis = new LongAdder();
+    private final LongAdder backoffMillis = new LongAdder();
+
+    /**
+     * @param bytesPerSecond      Write budget shared by all merges, {@link #UNLIMITED} for no limit
+     * @param maxConcurrentMerges Max number of merges doing work at the same time
+     * @param maxAppendP99        Merges pause while the p99 of the appends of the last second is above this, {@link #UNLIMITED} to ignore latency
+     * @param maxFlushBacklog     Merges pause while more than this number of entries are waiting to be flushed
+     */
+    public CompactionThrottle(long bytesPerSecond, int maxConcurrentMerges, long maxAppendP99, TimeUnit timeUnit, long maxFlushBacklog) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Bytes per second must not be negative");
+        }
+        if (maxConcurrentMerges < 1) {
+            throw new IllegalArgumentException("At least one concurrent merge is required");
+        }
+        if (maxAppendP99 < 0) {
+            throw new IllegalArgumentException("Append latency threshold must not be negative");
+        }
+        if (maxFlushBacklog < 0) {
+            throw new IllegalArgumentException("Flush backlog threshold must not be negative");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.maxConcurrentMerges = maxConcurrentMerges;
+        this.maxAppendP99Nanos = timeUnit.toNanos(maxAppendP99);
+        this.maxFlushBacklog = maxFlushBacklog;
+        this.merges = new Semaphore(maxConcurrentMerges, true);
+    }
+
+    public static CompactionThrottle unlimited() {
+        return new CompactionThrottle(UNLIMITED, Integer.MAX_VALUE, UNLIMITED, TimeUnit.MILLISECONDS, Long.MAX_VALUE);
+    }
+
+    //called by the append path once per completed append
+    public void recordAppendLatency(long nanos) {
+        int idx = (int) (latencyCount.getAndIncrement() & (LATENCY_SAMPLES - 1));
+        latencyTimes.set(idx, System.currentTimeMillis());
+        latencies.set(idx, nanos);
+    }
+
+    //entries waiting to be written to disk by the index flusher
+    public void flushBacklog(long entries) {
+        this.flushBacklog = entries;
+    }
+
+    public void beginMerge() {
+        try {
+            merges.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a merge slot", e);
+        }
+        state = State.RUNNING;
+    }
+
+    public void endMerge() {
+        merges.release();
+        if (merges.availablePermits() == maxConcurrentMerges) {
+            state = State.IDLE;
+        }
+    }
+
+    //blocks until the merge is allowed to write the given number of bytes
+    public void acquire(long bytes) {
+        backOffIfOverloaded();
+        bytesWritten.add(bytes);
+        if (bytesPerSecond == UNLIMITED) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            //unused budget of the last second can be used in a burst, older budget is lost
+            nextWriteNanos = Math.max(nextWriteNanos, now - TimeUnit.SECONDS.toNanos(1));
+            nextWriteNanos += bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+            waitNanos = nextWriteNanos - now;
+        }
+        if (waitNanos > 0) {
+            state = State.THROTTLED;
+            sleep(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            throttledMillis.add(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            state = State.RUNNING;
+        }
+    }
+
+    private void backOffIfOverloaded() {
+        long waited = 0;
+        while (overloaded() && waited < MAX_BACKOFF_MILLIS) {
+            state = State.BACKING_OFF;
+            sleep(BACKOFF_INTERVAL_MILLIS);
+            waited += BACKOFF_INTERVAL_MILLIS;
+        }
+        if (waited > 0) {
+            backoffMillis.add(waited);
+            state = State.RUNNING;
+        }
+    }
+
+    private boolean overloaded() {
+        if (flushBacklog > maxFlushBacklog) {
+            return true;
+        }
+        return maxAppendP99Nanos != UNLIMITED && recentAppendP99Nanos() > maxAppendP99Nanos;
+    }
+
+    //checked by every merge chunk, recomputed at most once per backoff interval, which is how often a paused merge checks again
+    private long recentAppendP99Nanos() {
+        if (System.currentTimeMillis() - cachedP99Millis < BACKOFF_INTERVAL_MILLIS) {
+            return cachedP99Nanos;
+        }
+        return appendP99Nanos();
+    }
+
+    //p99 of the appends recorded in the last second, zero if there were none
+    public synchronized long appendP99Nanos() {
+        long now = System.currentTimeMillis();
+        long minTime = now - LATENCY_WINDOW_MILLIS;
+        int recorded = (int) Math.min(LATENCY_SAMPLES, latencyCount.get());
+        int count = 0;
+        for (int i = 0; i < recorded; i++) {
+            if (latencyTimes.get(i) >= minTime) {
+                p99Samples[count++] = latencies.get(i);
+            }
+        }
+        long p99 = 0;
+        if (count > 0) {
+            Arrays.sort(p99Samples, 0, count);
+            p99 = p99Samples[(int) Math.ceil(count * 0.99) - 1];
+        }
+        cachedP99Nanos = p99;
+        cachedP99Millis = now;
+        return p99;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    public Stats stats() {
+        return new Stats(state, maxConcurrentMerges - merges.availablePermits(), bytesPerSecond, bytesWritten.sum(), throttledMillis.sum(), backoffMillis.sum(), recentAppendP99Nanos(), flushBacklog);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while throttling compaction", e);
+        }
+    }
+
+    public static class Stats {
+        public final State state;
+        public final int activeMerges;
+        public final long bytesPerSecond;
+        public final long bytesWritten;
+        //total time merges were slowed down by the byte budget and paused by the append path load
+        public final long throttledMillis;
+        public final long backoffMillis;
+        public final long appendP99Nanos;
+        public final long flushBacklog;
+
+        private Stats(State state, int activeMerges, long bytesPerSecond, long bytesWritten, long throttledMillis, long backoffMillis, long appendP99Nanos, long flushBacklog) {
+            this.state = state;
+            this.activeMerges = activeMerges;
+            this.bytesPerSecond = bytesPerSecond;
+            this.bytesWritten = bytesWritten;
+            this.throttledMillis = throttledMillis;
+            this.backoffMillis = backoffMillis;
+            this.appendP99Nanos = appendP99Nanos;
+            this.flushBacklog = flushBacklog;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "state=" + state +
+                    ", activeMerges=" + activeMerges +
+                    ", bytesPerSecond=" + bytesPerSecond +
+                    ", bytesWritten=" + bytesWritten +
+                    ", throttledMillis=" + throttledMillis +
+                    ", backoffMillis=" + backoffMillis +
+                    ", appendP99Nanos=" + appendP99Nanos +
+                    ", flushBacklog=" + flushBacklog +
+                    '}';
+        }
+    }
+}
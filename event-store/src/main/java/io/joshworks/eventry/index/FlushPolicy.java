@@ -0,0 +1,123 @@
+package io.joshworks.eventry.index;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the active memtable must be written to disk.
+ * Checked by the index writer after every add, so time based triggers only fire when there are writes.
+ */
+public interface FlushPolicy {
+
+    enum Trigger {
+        ENTRIES, MEMORY, AGE, LOG_BYTES, MANUAL
+    }
+
+    /**
+     * @param memIndex            The active memtable, never empty
+     * @param lastFlushedPosition Highest log position already on disk, -1 if nothing was flushed yet
+     * @return The trigger that fired, null if no flush is required
+     */
+    Trigger check(MemIndex memIndex, long lastFlushedPosition);
+
+    //expected number of entries per flush, used to size disk segments
+    int expectedEntries();
+
+    static FlushPolicy entries(int maxEntries) {
+        if (maxEntries < 1000) {//arbitrary number
+            throw new IllegalArgumentException("Flush threshold must be at least 1000");
+        }
+        return new FlushPolicy() {
+            @Override
+            public Trigger check(MemIndex memIndex, long lastFlushedPosition) {
+                return memIndex.size() >= maxEntries ? Trigger.ENTRIES : null;
+            }
+
+            @Override
+            public int expectedEntries() {
+                return maxEntries;
+            }
+        };
+    }
+
+    static FlushPolicy memory(long maxBytes) {
+        if (maxBytes < 1000L * MemIndex.ENTRY_BYTES) {
+            throw new IllegalArgumentException("Memory budget must be at least " + (1000L * MemIndex.ENTRY_BYTES) + " bytes");
+        }
+        return new FlushPolicy() {
+            @Override
+            public Trigger check(MemIndex memIndex, long lastFlushedPosition) {
+                return memIndex.memoryUsage() >= maxBytes ? Trigger.MEMORY : null;
+            }
+
+            @Override
+            public int expectedEntries() {
+                return (int) Math.min(Integer.MAX_VALUE, maxBytes / MemIndex.ENTRY_BYTES);
+            }
+        };
+    }
+
+    static FlushPolicy age(long maxAge, TimeUnit timeUnit) {
+        long maxAgeMillis = timeUnit.toMillis(maxAge);
+        if (maxAgeMillis <= 0) {
+            throw new IllegalArgumentException("Max age must be greater than zero");
+        }
+        return new FlushPolicy() {
+            @Override
+            public Trigger check(MemIndex memIndex, long lastFlushedPosition) {
+                return System.currentTimeMillis() - memIndex.createdAt() >= maxAgeMillis ? Trigger.AGE : null;
+            }
+
+            @Override
+            public int expectedEntries() {
+                return TableIndex.DEFAULT_FLUSH_THRESHOLD;
+            }
+        };
+    }
+
+    //bounds the amount of log that must be replayed on startup
+    static FlushPolicy logBytes(long maxLogBytes) {
+        if (maxLogBytes <= 0) {
+            throw new IllegalArgumentException("Max log bytes must be greater than zero");
+        }
+        return new FlushPolicy() {
+            @Override
+            public Trigger check(MemIndex memIndex, long lastFlushedPosition) {
+                long from = lastFlushedPosition < 0 ? memIndex.minPosition() : lastFlushedPosition;
+                return memIndex.maxPosition() - from >= maxLogBytes ? Trigger.LOG_BYTES : null;
+            }
+
+            @Override
+            public int expectedEntries() {
+                return TableIndex.DEFAULT_FLUSH_THRESHOLD;
+            }
+        };
+    }
+
+    //flushes when the first of the given policies fires
+    static FlushPolicy anyOf(FlushPolicy... policies) {
+        if (policies.length == 0) {
+            throw new IllegalArgumentException("At least one policy must be provided");
+        }
+        List<FlushPolicy> all = Arrays.asList(policies);
+        return new FlushPolicy() {
+            @Override
+            public Trigger check(MemIndex memIndex, long lastFlushedPosition) {
+                for (FlushPolicy policy : all) {
+                    Trigger trigger = policy.check(memIndex, lastFlushedPosition);
+                    if (trigger != null) {
+                        return trigger;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public int expectedEntries() {
+                return all.stream().mapToInt(FlushPolicy::expectedEntries).min().getAsInt();
+            }
+        };
+    }
+
+}
@@ -6,91 +6,182 @@ import io.joshworks.fstore.log.Iterators;
 import io.joshworks.fstore.log.LogIterator;
 import io.joshworks.fstore.log.PollingSubscriber;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
-import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+//Primitive memtable, no IndexEntry is kept in memory, they're created only when returned to the caller
+//Append order: streams | versions | positions, indexed by insertion order
+//Per stream: open addressing table from stream hash to sorted version -> position arrays
+//Single writer, multiple readers: the writer fills a slot and only then publishes the new (volatile) count,
+//arrays are never modified below a published count, they're copied instead. Readers never lock, they work on a snapshot
 public class MemIndex implements Index {
 
-    private final Map<Long, SortedSet<IndexEntry>> index = new ConcurrentHashMap<>();
-    private final List<IndexEntry> insertOrder = new ArrayList<>();
-    private final AtomicInteger size = new AtomicInteger();
-
-    private final List<MemPoller> pollers = new ArrayList<>();
+    private static final int INITIAL_CAPACITY = 1024;
+    //rough heap cost, used by the memory based flush policy
+    private static final int LOG_SLOT_BYTES = Long.BYTES + Integer.BYTES + Long.BYTES;
+    private static final int VERSION_SLOT_BYTES = Integer.BYTES + Long.BYTES;
+    private static final int REFERENCE_BYTES = 8;
+    private static final int STREAM_OVERHEAD_BYTES = 80;
+    //approximate bytes per entry of a memtable with a few versions per stream
+    public static final int ENTRY_BYTES = LOG_SLOT_BYTES + VERSION_SLOT_BYTES + 16;
+
+    private volatile AppendLog log = new AppendLog(INITIAL_CAPACITY);
+    private final StreamTable table = new StreamTable();
+    //stream keys in creation order, merged into 'sortedKeys' when a full scan is requested
+    private volatile KeyLog newKeys = new KeyLog(INITIAL_CAPACITY);
+    private long[] sortedKeys = new long[0];
+
+    private final List<MemPoller> pollers = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    private final long createdAt = System.currentTimeMillis();
+    private volatile long memoryUsage = INITIAL_CAPACITY * (LOG_SLOT_BYTES + Long.BYTES + REFERENCE_BYTES);
+    private volatile long minPosition = -1;
+    private volatile long maxPosition = -1;
 
     public void add(IndexEntry entry) {
-        index.compute(entry.stream, (k, v) -> {
-            if (v == null)
-                v = new TreeSet<>();
-            v.add(entry);
-            size.incrementAndGet();
-            insertOrder.add(entry);
-//            adToPollers(entry);
-            return v;
-        });
+        StreamEntries entries = table.get(entry.stream);
+        if (entries == null) {
+            int tableCapacity = table.capacity();
+            entries = table.create(entry.stream);
+            addKey(entry.stream);
+            memoryUsage += STREAM_OVERHEAD_BYTES + (long) (table.capacity() - tableCapacity) * REFERENCE_BYTES;
+        }
+        int versionsCapacity = entries.capacity();
+        if (!entries.add(entry.version, entry.position)) {
+            return; //duplicated version
+        }
+        memoryUsage += (long) (entries.capacity() - versionsCapacity) * VERSION_SLOT_BYTES;
+        AppendLog current = log;
+        int idx = current.count;
+        if (idx == current.streams.length) {
+            current = current.grow();
+            log = current;
+            memoryUsage += (long) idx * LOG_SLOT_BYTES;
+        }
+        if (minPosition < 0 || entry.position < minPosition) {
+            minPosition = entry.position;
+        }
+        if (entry.position > maxPosition) {
+            maxPosition = entry.position;
+        }
+        current.streams[idx] = entry.stream;
+        current.versions[idx] = entry.version;
+        current.positions[idx] = entry.position;
+        current.count = idx + 1;
+    }
+
+    private void addKey(long stream) {
+        KeyLog current = newKeys;
+        int idx = current.count;
+        if (idx == current.keys.length) {
+            current = current.grow();
+            newKeys = current;
+            memoryUsage += (long) idx * Long.BYTES;
+        }
+        current.keys[idx] = stream;
+        current.count = idx + 1;
+    }
+
+    //sorts only the keys added since the last call and merges them with the already sorted ones
+    private synchronized long[] sortedKeys() {
+        KeyLog current = newKeys;
+        int sorted = sortedKeys.length;
+        int total = current.count;
+        if (sorted == total) {
+            return sortedKeys;
+        }
+        long[] added = Arrays.copyOfRange(current.keys, sorted, total);
+        Arrays.sort(added);
+
+        long[] merged = new long[total];
+        int i = 0, j = 0, k = 0;
+        while (i < sorted && j < added.length) {
+            merged[k++] = sortedKeys[i] <= added[j] ? sortedKeys[i++] : added[j++];
+        }
+        while (i < sorted) {
+            merged[k++] = sortedKeys[i++];
+        }
+        while (j < added.length) {
+            merged[k++] = added[j++];
+        }
+        sortedKeys = merged;
+        return merged;
     }
 
     @Override
     public int version(long stream) {
-        SortedSet<IndexEntry> entries = index.get(stream);
+        StreamEntries entries = table.get(stream);
         if (entries == null) {
             return IndexEntry.NO_VERSION;
         }
-
-        return entries.last().version;
+        return entries.snapshot().lastVersion();
     }
 
     public int size() {
-        return size.get();
+        return log.count;
     }
 
+    public int streams() {
+        return table.size;
+    }
 
     public boolean isEmpty() {
-        return size.get() == 0;
+        return size() == 0;
+    }
+
+    //estimated heap used by this memtable, in bytes
+    public long memoryUsage() {
+        return memoryUsage;
+    }
+
+    //creation time of this memtable, in millis
+    public long createdAt() {
+        return createdAt;
+    }
+
+    //lowest log position in this memtable, -1 if empty
+    public long minPosition() {
+        return minPosition;
+    }
+
+    //highest log position in this memtable, -1 if empty
+    public long maxPosition() {
+        return maxPosition;
     }
 
     @Override
     public void close() {
-        for (MemPoller poller : new ArrayList<>(pollers)) {
+        closed = true;
+        for (MemPoller poller : pollers) {
             poller.close();
         }
     }
 
     @Override
     public LogIterator<IndexEntry> iterator(Direction direction) {
-        List<IndexEntry> ordered = index.entrySet().stream()
-                .sorted(Comparator.comparingLong(Map.Entry::getKey))
-                .map(Map.Entry::getValue)
-                .flatMap(Collection::stream)
-                .collect(Collectors.toList());
-
-        return Iterators.of(ordered);
+        return new MemIterator(sortedKeys(), direction);
     }
 
     @Override
     public LogIterator<IndexEntry> iterator(Direction direction, Range range) {
-        SortedSet<IndexEntry> entries = index.get(range.stream);
-        if (entries == null || entries.isEmpty()) {
+        StreamEntries entries = table.get(range.stream);
+        if (entries == null) {
             return Iterators.empty();
         }
-        Set<IndexEntry> indexEntries = entries.subSet(range.start(), range.end());
-        if(Direction.FORWARD.equals(direction)) {
-            return Iterators.of(Collections.unmodifiableSet(indexEntries));
+        Versions snapshot = entries.snapshot();
+        int from = snapshot.lowerBound(range.startVersionInclusive);
+        int to = snapshot.lowerBound(range.endVersionExclusive);
+        if (from >= to) {
+            return Iterators.empty();
         }
-        return Iterators.reversed(List.copyOf(indexEntries));
+        return new StreamIterator(range.stream, snapshot, from, to, direction);
     }
 
     @Override
@@ -105,35 +196,329 @@ public class MemIndex implements Index {
 
     @Override
     public Optional<IndexEntry> get(long stream, int version) {
-        SortedSet<IndexEntry> entries = index.get(stream);
+        StreamEntries entries = table.get(stream);
         if (entries == null) {
             return Optional.empty();
         }
-
-        Range range = Range.of(stream, version, version + 1);
-        entries = entries.subSet(range.start(), range.end());
-        if (entries.isEmpty()) {
+        Versions snapshot = entries.snapshot();
+        int idx = snapshot.indexOf(version);
+        if (idx < 0) {
             return Optional.empty();
         }
-        if (entries.size() > 1) {
-            throw new IllegalStateException("Found more than one index entry for stream " + stream + ", version " + version);
-        }
-        return Optional.of(entries.first());
+        return Optional.of(IndexEntry.of(stream, version, snapshot.positions[idx]));
     }
 
-
-//    private void adToPollers(IndexEntry entry) {
-//        for (MemPoller poller : new ArrayList<>(pollers)) {
-//            poller.add(entry);
-//        }
-//    }
+    //idx must be lower than a previously read count, the log only grows so any later instance contains it
+    private IndexEntry entryAt(int idx) {
+        AppendLog current = log;
+        return IndexEntry.of(current.streams[idx], current.versions[idx], current.positions[idx]);
+    }
 
     PollingSubscriber<IndexEntry> poller() {
         MemPoller memPoller = new MemPoller();
         pollers.add(memPoller);
+        if (closed) { //flushed memtable, poller only drains the remaining entries
+            memPoller.close();
+        }
         return memPoller;
     }
 
+    private static final class AppendLog {
+
+        private final long[] streams;
+        private final int[] versions;
+        private final long[] positions;
+        private volatile int count;
+
+        private AppendLog(int capacity) {
+            this.streams = new long[capacity];
+            this.versions = new int[capacity];
+            this.positions = new long[capacity];
+        }
+
+        private AppendLog grow() {
+            AppendLog grown = new AppendLog(streams.length * 2);
+            int size = count;
+            System.arraycopy(streams, 0, grown.streams, 0, size);
+            System.arraycopy(versions, 0, grown.versions, 0, size);
+            System.arraycopy(positions, 0, grown.positions, 0, size);
+            grown.count = size;
+            return grown;
+        }
+    }
+
+    private static final class KeyLog {
+
+        private final long[] keys;
+        private volatile int count;
+
+        private KeyLog(int capacity) {
+            this.keys = new long[capacity];
+        }
+
+        private KeyLog grow() {
+            KeyLog grown = new KeyLog(keys.length * 2);
+            int size = count;
+            System.arraycopy(keys, 0, grown.keys, 0, size);
+            grown.count = size;
+            return grown;
+        }
+    }
+
+    //Versions of a single stream. In order versions are appended in place, out of order ones copy the arrays, as a reader
+    //might be reading the slots that would shift. Versions are assigned in order and the log is replayed forward on startup,
+    //so the copy is only paid for entries added out of order by the caller
+    private static final class StreamEntries {
+
+        private static final Versions EMPTY = new Versions(0);
+
+        private final long stream;
+        private volatile Versions latest = new Versions(4);
+
+        private StreamEntries(long stream) {
+            this.stream = stream;
+        }
+
+        private int capacity() {
+            return latest.versions.length;
+        }
+
+        //instances are published to readers without synchronization, 'latest' might not be visible yet
+        private Versions snapshot() {
+            Versions current = latest;
+            return current == null ? EMPTY : current;
+        }
+
+        private boolean add(int version, long position) {
+            Versions current = latest;
+            int count = current.count;
+            int idx = count;
+            if (count > 0 && version <= current.versions[count - 1]) { //out of order
+                idx = Arrays.binarySearch(current.versions, 0, count, version);
+                if (idx >= 0) {
+                    return false;
+                }
+                idx = -(idx + 1);
+            }
+            if (idx == count && count < current.versions.length) {
+                current.versions[idx] = version;
+                current.positions[idx] = position;
+                current.count = count + 1;
+                return true;
+            }
+            int capacity = count == current.versions.length ? count * 2 : current.versions.length;
+            Versions copy = new Versions(capacity);
+            System.arraycopy(current.versions, 0, copy.versions, 0, idx);
+            System.arraycopy(current.positions, 0, copy.positions, 0, idx);
+            System.arraycopy(current.versions, idx, copy.versions, idx + 1, count - idx);
+            System.arraycopy(current.positions, idx, copy.positions, idx + 1, count - idx);
+            copy.versions[idx] = version;
+            copy.positions[idx] = position;
+            copy.count = count + 1;
+            latest = copy;
+            return true;
+        }
+    }
+
+    //Sorted version -> position arrays. Versions are usually contiguous, so lookup is a direct array access
+    private static final class Versions {
+
+        private final int[] versions;
+        private final long[] positions;
+        private volatile int count;
+
+        private Versions(int capacity) {
+            this.versions = new int[capacity];
+            this.positions = new long[capacity];
+        }
+
+        private int lastVersion() {
+            int size = count;
+            return size == 0 ? IndexEntry.NO_VERSION : versions[size - 1];
+        }
+
+        private int indexOf(int version) {
+            int size = count;
+            if (size == 0) {
+                return -1;
+            }
+            long idx = (long) version - versions[0];
+            if (idx >= 0 && idx < size && versions[(int) idx] == version) {
+                return (int) idx;
+            }
+            int found = Arrays.binarySearch(versions, 0, size, version);
+            return found >= 0 ? found : -1;
+        }
+
+        //first index with version >= the given version
+        private int lowerBound(int version) {
+            int idx = Arrays.binarySearch(versions, 0, count, version);
+            return idx >= 0 ? idx : -(idx + 1);
+        }
+    }
+
+    //Open addressing (linear probing) map of stream hash to StreamEntries, no boxing. The key is the entry's final 'stream'
+    //field, so a reader racing with an insert either misses the new slot or sees a fully usable key
+    private static final class StreamTable {
+
+        private volatile StreamEntries[] slots = new StreamEntries[INITIAL_CAPACITY];
+        private volatile int size;
+
+        private StreamEntries get(long stream) {
+            StreamEntries[] table = slots;
+            int mask = table.length - 1;
+            int idx = slot(stream, mask);
+            StreamEntries value;
+            while ((value = table[idx]) != null) {
+                if (value.stream == stream) {
+                    return value;
+                }
+                idx = (idx + 1) & mask;
+            }
+            return null;
+        }
+
+        private int capacity() {
+            return slots.length;
+        }
+
+        private StreamEntries create(long stream) {
+            if ((size + 1) * 4 > slots.length * 3) { //load factor 0.75
+                resize();
+            }
+            StreamEntries created = new StreamEntries(stream);
+            insert(slots, created);
+            size++;
+            return created;
+        }
+
+        //readers keep probing the old table until the new one is published
+        private void resize() {
+            StreamEntries[] current = slots;
+            StreamEntries[] resized = new StreamEntries[current.length * 2];
+            for (StreamEntries entries : current) {
+                if (entries != null) {
+                    insert(resized, entries);
+                }
+            }
+            slots = resized;
+        }
+
+        private static void insert(StreamEntries[] table, StreamEntries entries) {
+            int mask = table.length - 1;
+            int idx = slot(entries.stream, mask);
+            while (table[idx] != null) {
+                idx = (idx + 1) & mask;
+            }
+            table[idx] = entries;
+        }
+
+        private static int slot(long stream, int mask) {
+            long h = stream * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+
+    private static final class StreamIterator implements LogIterator<IndexEntry> {
+
+        private final long stream;
+        private final Versions snapshot;
+        private final int from;
+        private final int to;
+        private final boolean forward;
+        private int idx;
+
+        private StreamIterator(long stream, Versions snapshot, int from, int to, Direction direction) {
+            this.stream = stream;
+            this.snapshot = snapshot;
+            this.from = from;
+            this.to = to;
+            this.forward = Direction.FORWARD.equals(direction);
+            this.idx = forward ? from : to - 1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return forward ? idx < to : idx >= from;
+        }
+
+        @Override
+        public IndexEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int current = forward ? idx++ : idx--;
+            return IndexEntry.of(stream, snapshot.versions[current], snapshot.positions[current]);
+        }
+
+        @Override
+        public long position() {
+            return idx;
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+
+    //Ordered by stream and version, reversed when BACKWARD. Each stream is read from its snapshot when reached
+    private final class MemIterator implements LogIterator<IndexEntry> {
+
+        private final long[] keys;
+        private final boolean forward;
+        private int keyIdx;
+        private long stream;
+        private Versions current;
+        private int count;
+        private int versionIdx;
+        private long position;
+
+        private MemIterator(long[] keys, Direction direction) {
+            this.keys = keys;
+            this.forward = Direction.FORWARD.equals(direction);
+            this.keyIdx = forward ? 0 : keys.length - 1;
+        }
+
+        private boolean hasVersions() {
+            return current != null && (forward ? versionIdx < count : versionIdx >= 0);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!hasVersions()) {
+                if (keyIdx < 0 || keyIdx >= keys.length) {
+                    return false;
+                }
+                stream = keys[forward ? keyIdx++ : keyIdx--];
+                current = table.get(stream).snapshot();
+                count = current.count;
+                versionIdx = forward ? 0 : count - 1;
+            }
+            return true;
+        }
+
+        @Override
+        public IndexEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int idx = forward ? versionIdx++ : versionIdx--;
+            position++;
+            return IndexEntry.of(stream, current.versions[idx], current.positions[idx]);
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+
     private class MemPoller implements PollingSubscriber<IndexEntry> {
 
         private static final int VERIFICATION_INTERVAL_MILLIS = 500;
@@ -141,7 +526,7 @@ public class MemIndex implements Index {
         private int position = 0;
 
         private boolean hasData() {
-            return position < insertOrder.size();
+            return position < log.count;
         }
 
         private void waitFor(long time, TimeUnit timeUnit) throws InterruptedException {
@@ -167,7 +552,7 @@ public class MemIndex implements Index {
         @Override
         public synchronized IndexEntry peek() {
             if (hasData()) {
-                return insertOrder.get(position);
+                return entryAt(position);
             }
             return null;
         }
@@ -180,11 +565,11 @@ public class MemIndex implements Index {
         @Override
         public synchronized IndexEntry poll(long limit, TimeUnit timeUnit) throws InterruptedException {
             if (hasData()) {
-                return insertOrder.get(position++);
+                return entryAt(position++);
             }
             waitFor(limit, timeUnit);
             if (hasData()) {
-                return insertOrder.get(position++);
+                return entryAt(position++);
             }
             return null;
         }
@@ -192,11 +577,11 @@ public class MemIndex implements Index {
         @Override
         public synchronized IndexEntry take() throws InterruptedException {
             if (hasData()) {
-                return insertOrder.get(position++);
+                return entryAt(position++);
             }
             waitForData(VERIFICATION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
             if (hasData()) {
-                return insertOrder.get(position++);
+                return entryAt(position++);
             }
             //poller was closed while waiting for data
             return null; //TODO shouldn't be an InterruptedException ?
@@ -224,4 +609,4 @@ public class MemIndex implements Index {
 
     }
 
-}
\ No newline at end of file
+}
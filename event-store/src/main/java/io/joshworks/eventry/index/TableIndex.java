@@ -2,27 +2,44 @@ package io.joshworks.eventry.index;
 
 import io.joshworks.fstore.codec.snappy.SnappyCodec;
 import io.joshworks.fstore.core.Codec;
+import io.joshworks.fstore.core.RuntimeIOException;
 import io.joshworks.fstore.core.io.IOUtils;
+import io.joshworks.eventry.index.disk.BlockCache;
 import io.joshworks.eventry.index.disk.IndexAppender;
 import io.joshworks.eventry.index.disk.IndexCompactor;
 import io.joshworks.eventry.index.disk.IndexEntrySerializer;
+import io.joshworks.eventry.index.filter.BloomFilter;
 import io.joshworks.fstore.log.Direction;
 import io.joshworks.fstore.log.Iterators;
 import io.joshworks.fstore.log.LogIterator;
 import io.joshworks.fstore.log.PollingSubscriber;
+import io.joshworks.fstore.log.appender.Config;
 import io.joshworks.fstore.log.appender.LogAppender;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -31,13 +48,42 @@ public class TableIndex implements Index {
     private static final Logger logger = LoggerFactory.getLogger(TableIndex.class);
     public static final int DEFAULT_FLUSH_THRESHOLD = 1000000;
     public static final boolean DEFAULT_USE_COMPRESSION = true;
+    public static final long DEFAULT_BLOCK_CACHE_SIZE = 64 * 1024 * 1024;
+    //sealed index segments are read from memory mappings, only worth it when the index fits in memory
+    public static final boolean DEFAULT_MMAP_SEGMENTS = false;
+    public static final CompactionPolicy DEFAULT_COMPACTION_POLICY = CompactionPolicy.tiered(2);
+    public static final long DEFAULT_COMPACTION_BYTES_PER_SEC = 64 * 1024 * 1024;
+    public static final int DEFAULT_CONCURRENT_MERGES = 1;
+    public static final long DEFAULT_COMPACTION_MAX_APPEND_P99_MILLIS = 50;
     private static final String INDEX_DIR = "index";
     private static final String INDEX_WRITER = "index-writer";
-    private final int flushThreshold; //TODO externalize
+    private static final String STREAM_FILTER = "streams";
+    //16MB, allocated once, flushes only rewrite the blocks of the streams added since the previous one
+    private static final long STREAM_FILTER_EXPECTED_STREAMS = 10000000;
+    private static final double STREAM_FILTER_FALSE_POSITIVE_PROB = 0.01;
+    //frozen memtables kept in memory while flushes are failing, writes are rejected past this
+    private static final int MAX_FROZEN_MEMTABLES = 4;
+    private final FlushPolicy flushPolicy;
+    private final CompactionPolicy compactionPolicy;
+    private final CompactionThrottle compactionThrottle;
+    private final IndexCompactor compactor;
+    private final LongAdder flushedEntries = new LongAdder();
+    private volatile Supplier<Tombstones> tombstones = () -> Tombstones.NONE;
+    //highest log position of the last frozen memtable
+    private long lastFlushedPosition = -1;
 
     //    private final EventLog log;
     private final IndexAppender diskIndex;
-    private MemIndex memIndex = new MemIndex();
+    //every stream ever added, persisted before each segment is written so it's always a superset of the disk streams
+    private final BloomFilter streamFilter;
+    //replaced as a whole on freeze and flush, each read uses a single snapshot
+    private volatile MemTables memTables = new MemTables(new MemIndex(), List.of());
+    private final Object memTablesLock = new Object();
+    //a segment being sealed and its memtable being dropped are seen as a single change by iterators
+    private final ReadWriteLock sealLock = new ReentrantReadWriteLock();
+    private volatile Future<?> pendingFlush;
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor(r -> new Thread(r, INDEX_WRITER));
+    private final Consumer<FlushInfo> flushListener;
 
     private final Set<DiskMemIndexPoller> pollers = new HashSet<>();
 
@@ -46,24 +92,123 @@ public class TableIndex implements Index {
     }
 
     public TableIndex(File rootDirectory, int flushThreshold, boolean useCompression) {
-        if (flushThreshold < 1000) {//arbitrary number
-            throw new IllegalArgumentException("Flush threshold must be at least 1000");
-        }
+        this(rootDirectory, flushThreshold, useCompression, flushInfo -> {});
+    }
+
+    public TableIndex(File rootDirectory, int flushThreshold, boolean useCompression, Consumer<FlushInfo> flushListener) {
+        this(rootDirectory, FlushPolicy.entries(flushThreshold), useCompression, flushListener);
+    }
+
+    /**
+     * @param flushPolicy   When the memtable is written to disk, also used to size disk segments
+     * @param flushListener Called from the flusher thread once a memtable is fully written to disk
+     */
+    public TableIndex(File rootDirectory, FlushPolicy flushPolicy, boolean useCompression, Consumer<FlushInfo> flushListener) {
+        this(rootDirectory, flushPolicy, DEFAULT_COMPACTION_POLICY, useCompression, flushListener);
+    }
+
+    /**
+     * @param compactionPolicy How disk segments are merged, see {@link #compactionStats()} for its cost
+     */
+    public TableIndex(File rootDirectory, FlushPolicy flushPolicy, CompactionPolicy compactionPolicy, boolean useCompression, Consumer<FlushInfo> flushListener) {
+        this(rootDirectory, flushPolicy, compactionPolicy, defaultCompactionThrottle(), useCompression, flushListener);
+    }
+
+    /**
+     * @param compactionThrottle Paces disk segment merges, the append latency must be reported to it by the caller
+     */
+    public TableIndex(File rootDirectory, FlushPolicy flushPolicy, CompactionPolicy compactionPolicy, CompactionThrottle compactionThrottle, boolean useCompression, Consumer<FlushInfo> flushListener) {
+        this(rootDirectory, flushPolicy, compactionPolicy, compactionThrottle, useCompression, DEFAULT_MMAP_SEGMENTS, flushListener);
+    }
+
+    /**
+     * @param mmapSegments Read the blocks of sealed disk segments through memory mappings instead of the storage
+     */
+    public TableIndex(File rootDirectory, FlushPolicy flushPolicy, CompactionPolicy compactionPolicy, CompactionThrottle compactionThrottle, boolean useCompression, boolean mmapSegments, Consumer<FlushInfo> flushListener) {
+        this.flushPolicy = Objects.requireNonNull(flushPolicy, "Flush policy must be provided");
+        this.compactionPolicy = Objects.requireNonNull(compactionPolicy, "Compaction policy must be provided");
+        this.compactionThrottle = Objects.requireNonNull(compactionThrottle, "Compaction throttle must be provided");
+        this.compactor = new IndexCompactor(compactionThrottle, () -> tombstones.get());
+        int expectedEntries = flushPolicy.expectedEntries();
 
         Codec codec = useCompression ? new SnappyCodec() : Codec.noCompression();
-        diskIndex = new IndexAppender(LogAppender
+        Config<IndexEntry> config = LogAppender
                 .builder(new File(rootDirectory, INDEX_DIR), new IndexEntrySerializer())
-                .compactionStrategy(new IndexCompactor())
-                .maxSegmentsPerLevel(2)
                 .maxRecordSize(4096 * 4)
-                .segmentSize(flushThreshold * IndexEntry.BYTES)
-                .namingStrategy(new IndexAppender.IndexNaming()), flushThreshold, codec);
+                .segmentSize((int) Math.min(Integer.MAX_VALUE, (long) expectedEntries * IndexEntry.BYTES))
+                .namingStrategy(new IndexAppender.IndexNaming());
+        compactionPolicy.configure(config, compactor);
+        diskIndex = new IndexAppender(config, expectedEntries, codec, DEFAULT_BLOCK_CACHE_SIZE, mmapSegments);
+
+        this.streamFilter = loadStreamFilter(new File(rootDirectory, INDEX_DIR));
+        this.flushListener = Objects.requireNonNull(flushListener, "Flush listener must be provided");
+    }
+
+    //merges pause whenever a memtable is waiting to be written
+    private static CompactionThrottle defaultCompactionThrottle() {
+        return new CompactionThrottle(DEFAULT_COMPACTION_BYTES_PER_SEC, DEFAULT_CONCURRENT_MERGES, DEFAULT_COMPACTION_MAX_APPEND_P99_MILLIS, TimeUnit.MILLISECONDS, 0);
+    }
+
+    private BloomFilter loadStreamFilter(File indexDir) {
+        boolean exists = BloomFilter.exists(indexDir, STREAM_FILTER);
+        BloomFilter filter = BloomFilter.openOrCreate(indexDir, STREAM_FILTER, STREAM_FILTER_EXPECTED_STREAMS, STREAM_FILTER_FALSE_POSITIVE_PROB);
+        if (!exists && diskIndex.entries() > 0) {
+            logger.info("Rebuilding stream filter from disk index");
+            try (LogIterator<IndexEntry> iterator = diskIndex.iterator(Direction.FORWARD)) {
+                long last = 0;
+                boolean first = true;
+                while (iterator.hasNext()) {
+                    long stream = iterator.next().stream;
+                    if (first || stream != last) { //entries are sorted by stream within each segment
+                        filter.add(stream);
+                    }
+                    first = false;
+                    last = stream;
+                }
+            } catch (IOException e) {
+                throw RuntimeIOException.of(e);
+            }
+            filter.write();
+        }
+        return filter;
+    }
+
+    private void addToMemory(IndexEntry entry) {
+        MemIndex memIndex = memTables.active;
+        if (memIndex.version(entry.stream) == IndexEntry.NO_VERSION) { //first entry of this stream in the memtable
+            streamFilter.add(entry.stream);
+        }
+        memIndex.add(entry);
+    }
 
-        this.flushThreshold = flushThreshold;
+    //false means the stream has never been added, so disk doesn't need to be checked
+    //lock free: a stream only reaches disk after its memtable was frozen, which publishes the bits set on add
+    private boolean mightExist(long stream) {
+        return streamFilter.contains(stream);
     }
 
-    //returns true if flushed to disk
-    public FlushInfo add(long stream, int version, long position) {
+    /**
+     * Must be called before writing to the log the entries that will be added: once they are in the log, adding them
+     * can't fail. Waits for the running flush when too many memtables are waiting to be written, and retries a failed one.
+     *
+     * @throws IllegalStateException if the memtables still can't be flushed, nothing must be written
+     */
+    public void checkCapacity() {
+        if (memTables.frozen.size() < MAX_FROZEN_MEMTABLES) {
+            return;
+        }
+        waitForFlush();
+        if (memTables.frozen.size() >= MAX_FROZEN_MEMTABLES) {
+            pendingFlush = flusher.submit(this::flushFrozen);
+            waitForFlush();
+        }
+        if (memTables.frozen.size() >= MAX_FROZEN_MEMTABLES) {
+            throw new IllegalStateException("Index flush is failing, " + memTables.frozen.size() + " memtables waiting to be written");
+        }
+    }
+
+    //single writer only, flushing happens in background, checkCapacity must be called before the log write
+    public void add(long stream, int version, long position) {
         if (version <= IndexEntry.NO_VERSION) {
             throw new IllegalArgumentException("Version must be greater than or equals to zero");
         }
@@ -71,49 +216,198 @@ public class TableIndex implements Index {
             throw new IllegalArgumentException("Position must be greater than zero");
         }
         IndexEntry entry = IndexEntry.of(stream, version, position);
-        memIndex.add(entry);
-        if (memIndex.size() >= flushThreshold) {
-            var flushInfo = writeToDisk();
-            memIndex.close();
-            memIndex = new MemIndex();
-            return flushInfo;
+        addToMemory(entry);
+        flushIfRequired();
+    }
+
+    //adds all entries and checks the flush threshold only once
+    public void addAll(List<IndexEntry> entries) {
+        for (IndexEntry entry : entries) {
+            addToMemory(entry);
         }
-        return null;
+        flushIfRequired();
     }
 
-    //only single write can happen at time
-    public FlushInfo writeToDisk() {
-        logger.info("Writing index to disk");
+    private void flushIfRequired() {
+        MemIndex memIndex = memTables.active;
         if (memIndex.isEmpty()) {
-            return null;
+            return;
+        }
+        FlushPolicy.Trigger trigger = flushPolicy.check(memIndex, lastFlushedPosition);
+        if (trigger != null) {
+            //the entries are already in the log, so nothing here throws: writes are held back by checkCapacity instead
+            waitForFlush(); //back pressure: one flush at a time
+            if (memTables.frozen.size() >= MAX_FROZEN_MEMTABLES) {
+                return; //keeps growing the active memtable until a flush succeeds
+            }
+            freeze(trigger);
+            //also retries the memtables of a failed flush, in order
+            pendingFlush = flusher.submit(this::flushFrozen);
+        }
+    }
+
+    private void freeze(FlushPolicy.Trigger trigger) {
+        synchronized (memTablesLock) {
+            MemTables current = memTables;
+            List<Frozen> frozen = new ArrayList<>(current.frozen);
+            frozen.add(new Frozen(current.active, trigger));
+            memTables = new MemTables(new MemIndex(), frozen);
+            lastFlushedPosition = Math.max(lastFlushedPosition, current.active.maxPosition());
+            compactionThrottle.flushBacklog(memTables.frozenEntries());
+        }
+    }
+
+    //writes the frozen memtables oldest first, a memtable is only dropped once it's fully on disk
+    private FlushInfo flushFrozen() {
+        FlushInfo last = null;
+        Frozen frozen;
+        while ((frozen = oldestFrozen()) != null) {
+            try {
+                streamFilter.write(); //must contain all streams of the new segment in case of a crash
+                last = writeToDisk(frozen);
+            } catch (Exception e) {
+                logger.error("Failed to flush index, {} entries of the memtable are on disk", frozen.written, e);
+                throw e;
+            }
+            Lock lock = sealLock.writeLock();
+            lock.lock();
+            try {
+                diskIndex.roll(); //the segment only becomes readable once sealed
+                synchronized (memTablesLock) {
+                    MemTables current = memTables;
+                    memTables = new MemTables(current.active, current.frozen.subList(1, current.frozen.size()));
+                    compactionThrottle.flushBacklog(memTables.frozenEntries());
+                }
+            } finally {
+                lock.unlock();
+            }
+            frozen.memIndex.close();
+            flushListener.accept(last);
         }
+        return last;
+    }
 
+    private Frozen oldestFrozen() {
+        List<Frozen> frozen = memTables.frozen;
+        return frozen.isEmpty() ? null : frozen.get(0);
+    }
+
+    //failures are logged by the flusher, the memtables stay readable and are retried by the next flush
+    private void waitForFlush() {
+        try {
+            awaitPendingFlush();
+        } catch (RuntimeException e) {
+            logger.warn("Previous index flush failed or was interrupted, retrying with the next one");
+        }
+    }
+
+    //waits for the background flush, if any
+    public void awaitPendingFlush() {
+        if (pendingFlush == null) {
+            return;
+        }
+        try {
+            pendingFlush.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for index flush", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Index flush failed", e.getCause());
+        } finally {
+            pendingFlush = null;
+        }
+    }
+
+    //only single write can happen at time, a retry skips the entries already written by the failed attempt
+    //the segment is sealed by the caller
+    private FlushInfo writeToDisk(Frozen frozen) {
+        logger.info("Writing index to disk, trigger: {}", frozen.trigger);
         long start = System.currentTimeMillis();
-        memIndex.stream(Direction.FORWARD).forEach(diskIndex::append);
-        diskIndex.roll();
+        MemIndex memIndex = frozen.memIndex;
+        if (frozen.written == 0) {
+            diskIndex.expectStreams(memIndex.streams());
+        }
+        try (LogIterator<IndexEntry> iterator = memIndex.iterator(Direction.FORWARD)) {
+            int skipped = 0;
+            while (iterator.hasNext()) {
+                IndexEntry entry = iterator.next();
+                if (skipped < frozen.written) {
+                    skipped++;
+                    continue;
+                }
+                diskIndex.append(entry);
+                frozen.written++;
+            }
+        } catch (IOException e) {
+            throw RuntimeIOException.of(e);
+        }
+        flushedEntries.add(memIndex.size());
         long timeTaken = System.currentTimeMillis() - start;
         logger.info("Flush completed in {}ms", timeTaken);
-        return new FlushInfo(memIndex.size(), timeTaken);
+        return new FlushInfo(memIndex.size(), timeTaken, memIndex.maxPosition(), frozen.trigger);
     }
 
     @Override
     public int version(long stream) {
-        int version = memIndex.version(stream);
+        MemTables tables = memTables;
+        int version = tables.active.version(stream);
         if (version > IndexEntry.NO_VERSION) {
             return version;
         }
-
+        for (int i = tables.frozen.size() - 1; i >= 0; i--) { //newest first
+            version = tables.frozen.get(i).memIndex.version(stream);
+            if (version > IndexEntry.NO_VERSION) {
+                return version;
+            }
+        }
+        if (!mightExist(stream)) {
+            return IndexEntry.NO_VERSION;
+        }
         return diskIndex.version(stream);
     }
 
+    public BlockCache.Stats blockCacheStats() {
+        return diskIndex.blockCacheStats();
+    }
+
+    //called when each merge starts, entries of deleted and truncated streams are dropped from the merged segment
+    public void tombstones(Supplier<Tombstones> tombstones) {
+        this.tombstones = Objects.requireNonNull(tombstones, "Tombstones must be provided");
+    }
+
+    public CompactionThrottle compactionThrottle() {
+        return compactionThrottle;
+    }
+
+    //flushed entries and merge totals are counted since the index was opened
+    public CompactionStats compactionStats() {
+        return new CompactionStats(
+                compactionPolicy.toString(),
+                compactor.merges(),
+                flushedEntries.sum(),
+                compactor.entriesMerged(),
+                compactor.entriesWritten(),
+                compactor.entriesDropped(),
+                compactor.filtersMerged(),
+                compactor.bytesMerged(),
+                compactor.bytesWritten(),
+                diskIndex.segmentsPerLevel(),
+                diskIndex.entriesPerLevel());
+    }
+
+    //a flush completing during the call may count its entries twice
     public long size() {
-        return diskIndex.entries() + memIndex.size();
+        MemTables tables = memTables;
+        return diskIndex.entries() + tables.active.size() + tables.frozenEntries();
     }
 
     @Override
     public void close() {
 //        this.flush(); //no need to flush, just reload from disk on startup
-        memIndex.close();
+        awaitPendingFlush();
+        flusher.shutdown();
+        streamFilter.write();
+        memTables.active.close();
         diskIndex.close();
         for (DiskMemIndexPoller poller : pollers) {
             IOUtils.closeQuietly(poller);
@@ -124,18 +418,37 @@ public class TableIndex implements Index {
 
     @Override
     public LogIterator<IndexEntry> iterator(Direction direction) {
-        LogIterator<IndexEntry> cacheIterator = memIndex.iterator(direction);
-        LogIterator<IndexEntry> diskIterator = diskIndex.iterator(direction);
-
-        return joiningDiskAndMem(diskIterator, cacheIterator);
+        return iterator(direction, memIndex -> memIndex.iterator(direction), () -> diskIndex.iterator(direction));
     }
 
     @Override
     public LogIterator<IndexEntry> iterator(Direction direction, Range range) {
-        LogIterator<IndexEntry> cacheIterator = memIndex.iterator(direction, range);
-        LogIterator<IndexEntry> diskIterator = diskIndex.iterator(direction, range);
+        return iterator(direction, memIndex -> memIndex.iterator(direction, range), () -> diskIndex.iterator(direction, range));
+    }
 
-        return joiningDiskAndMem(diskIterator, cacheIterator);
+    /**
+     * Memtables are read from a single snapshot, the disk iterator is created under the same seal state,
+     * entries are never returned from both a frozen memtable and the segment it was written to.
+     */
+    private LogIterator<IndexEntry> iterator(Direction direction, Function<MemIndex, LogIterator<IndexEntry>> memIterator, Supplier<LogIterator<IndexEntry>> diskIterator) {
+        List<LogIterator<IndexEntry>> all = new ArrayList<>();
+        Lock lock = sealLock.readLock();
+        lock.lock();
+        try {
+            MemTables tables = memTables;
+            all.add(diskIterator.get());
+            for (Frozen frozen : tables.frozen) {
+                all.add(memIterator.apply(frozen.memIndex));
+            }
+            all.add(memIterator.apply(tables.active));
+        } finally {
+            lock.unlock();
+        }
+        //newest entries are in memory, so BACKWARD starts from it
+        if (Direction.BACKWARD.equals(direction)) {
+            Collections.reverse(all);
+        }
+        return Iterators.concat(all);
     }
 
     @Override
@@ -150,22 +463,33 @@ public class TableIndex implements Index {
 
     @Override
     public Optional<IndexEntry> get(long stream, int version) {
-        Optional<IndexEntry> fromMemory = memIndex.get(stream, version);
+        MemTables tables = memTables;
+        Optional<IndexEntry> fromMemory = tables.active.get(stream, version);
         if (fromMemory.isPresent()) {
             return fromMemory;
         }
+        for (Frozen frozen : tables.frozen) {
+            Optional<IndexEntry> fromFrozen = frozen.memIndex.get(stream, version);
+            if (fromFrozen.isPresent()) {
+                return fromFrozen;
+            }
+        }
+        if (!mightExist(stream)) {
+            return Optional.empty();
+        }
         return diskIndex.get(stream, version);
     }
 
-    private LogIterator<IndexEntry> joiningDiskAndMem(LogIterator<IndexEntry> diskIterator, LogIterator<IndexEntry> memIndex) {
-        return Iterators.concat(Arrays.asList(diskIterator, memIndex));
-    }
-
+    //synchronously flushes the current memtable and any left by a failed flush, waiting for any background flush first
     public FlushInfo flush() {
-        FlushInfo flushInfo = writeToDisk();
-        memIndex.close();
-        memIndex = new MemIndex();
-        return flushInfo;
+        waitForFlush();
+        if (memTables.active.isEmpty() && memTables.frozen.isEmpty()) {
+            return null;
+        }
+        if (!memTables.active.isEmpty()) {
+            freeze(FlushPolicy.Trigger.MANUAL);
+        }
+        return flushFrozen();
     }
 
     public PollingSubscriber<IndexEntry> poller(long stream) {
@@ -288,7 +612,7 @@ public class TableIndex implements Index {
 
         private DiskMemIndexPoller(PollingSubscriber<IndexEntry> diskPoller) {
             this.diskPoller = diskPoller;
-            this.memPoller = memIndex.poller();
+            this.memPoller = currentMemPoller();
         }
 
         @Override
@@ -394,19 +718,61 @@ public class TableIndex implements Index {
 
         private PollingSubscriber<IndexEntry> newMemPoller() {
             IOUtils.closeQuietly(memPoller);
-            return memIndex.poller();
+            return currentMemPoller();
+        }
+
+        //frozen memtable entries must be read before the active ones
+        private PollingSubscriber<IndexEntry> currentMemPoller() {
+            MemTables tables = memTables;
+            return tables.frozen.isEmpty() ? tables.active.poller() : tables.frozen.get(0).memIndex.poller();
+        }
+
+    }
+
+
+    private static final class MemTables {
+        private final MemIndex active;
+        //oldest first, waiting to be written to disk
+        private final List<Frozen> frozen;
+
+        private MemTables(MemIndex active, List<Frozen> frozen) {
+            this.active = active;
+            this.frozen = List.copyOf(frozen);
         }
 
+        private long frozenEntries() {
+            long entries = 0;
+            for (Frozen f : frozen) {
+                entries += f.memIndex.size();
+            }
+            return entries;
+        }
     }
 
+    private static final class Frozen {
+        private final MemIndex memIndex;
+        private final FlushPolicy.Trigger trigger;
+        //entries already appended to disk, only accessed by the flusher
+        private int written;
+
+        private Frozen(MemIndex memIndex, FlushPolicy.Trigger trigger) {
+            this.memIndex = memIndex;
+            this.trigger = trigger;
+        }
+    }
 
     public class FlushInfo {
         public int entries;
         public final long timeTaken;
+        //highest log position present in the flushed memtable
+        public final long logPosition;
+        public final FlushPolicy.Trigger trigger;
 
-        private FlushInfo(int entries, long timeTaken) {
+        private FlushInfo(int entries, long timeTaken, long logPosition, FlushPolicy.Trigger trigger) {
             this.entries = entries;
             this.timeTaken = timeTaken;
+            this.logPosition = logPosition;
+            this.trigger = trigger;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package io.joshworks.eventry.index;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Snapshot of the dead index entries, taken when a merge starts: for each stream, the lowest version that is still alive.
+ * Covers deleted streams (everything up to the version at deletion) and streams truncated by max count.
+ * Entries added after the snapshot are unaffected, so dropping them is always safe for the duration of the merge.
+ */
+public class Tombstones {
+
+    public static final Tombstones NONE = new Tombstones(new HashMap<>());
+
+    private final Map<Long, Integer> firstLiveVersions;
+
+    public Tombstones(Map<Long, Integer> firstLiveVersions) {
+        this.firstLiveVersions = new HashMap<>(firstLiveVersions);
+    }
+
+    //entries with a lower version are dead, zero if the stream has no dead entries
+    public int firstLiveVersion(long stream) {
+        return firstLiveVersions.getOrDefault(stream, 0);
+    }
+
+    public boolean isEmpty() {
+        return firstLiveVersions.isEmpty();
+    }
+
+    public int size() {
+        return firstLiveVersions.size();
+    }
+}
@@ -0,0 +1,229 @@
+package io.joshworks.eventry.index.disk;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Size bounded cache of decoded blocks shared by all segments, keyed by (segment, block position).
+ * Lock striped, each stripe is a segmented LRU: blocks enter a probation segment and are only promoted to the protected
+ * segment when hit again, so a full scan (compaction, iterators) can't flush the hot blocks out.
+ * Loading happens outside the lock, concurrent misses of the same block might load it twice.
+ */
+public class BlockCache<T> {
+
+    private static final int STRIPES = 16;
+    private static final double PROTECTED_RATIO = 0.8;
+    private static final int POSITION_BITS = 40;
+    private static final long MAX_POSITION = (1L << POSITION_BITS) - 1;
+
+    private final Stripe<T>[] stripes;
+    private final ToIntFunction<T> weigher;
+    private final AtomicInteger segmentIds = new AtomicInteger();
+    private final long maxBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes Max total weight of the cached blocks, zero disables caching
+     * @param weigher  Approximate size in bytes of a cached block
+     */
+    @SuppressWarnings("unchecked")
+    public BlockCache(long maxBytes, ToIntFunction<T> weigher) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative");
+        }
+        this.maxBytes = maxBytes;
+        this.weigher = weigher;
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe<>(maxBytes / STRIPES);
+        }
+    }
+
+    //each segment instance gets its own id, so a deleted segment's blocks are never returned for a new one with the same name
+    int newSegmentId() {
+        return segmentIds.incrementAndGet();
+    }
+
+    public T get(int segmentId, long position, LongFunction<T> loader) {
+        if (maxBytes == 0) {
+            return loader.apply(position);
+        }
+        long key = key(segmentId, position);
+        Stripe<T> stripe = stripeOf(key);
+        T cached = stripe.get(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        T loaded = loader.apply(position);
+        evictions.add(stripe.put(key, loaded, weigher.applyAsInt(loaded)));
+        return loaded;
+    }
+
+    public void invalidate(int segmentId) {
+        for (Stripe<T> stripe : stripes) {
+            stripe.removeSegment(segmentId);
+        }
+    }
+
+    public Stats stats() {
+        long bytes = 0;
+        int blocks = 0;
+        for (Stripe<T> stripe : stripes) {
+            synchronized (stripe) {
+                bytes += stripe.probationBytes + stripe.protectedBytes;
+                blocks += stripe.probation.size() + stripe.protectedBlocks.size();
+            }
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), blocks, bytes);
+    }
+
+    private static long key(int segmentId, long position) {
+        if (position < 0 || position > MAX_POSITION) {
+            throw new IllegalArgumentException("Invalid block position: " + position);
+        }
+        return ((long) segmentId << POSITION_BITS) | position;
+    }
+
+    private Stripe<T> stripeOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (h >>> 60)];
+    }
+
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final int blocks;
+        public final long bytes;
+
+        private Stats(long hits, long misses, long evictions, int blocks, long bytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.blocks = blocks;
+            this.bytes = bytes;
+        }
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", evictions=" + evictions +
+                    ", blocks=" + blocks +
+                    ", bytes=" + bytes +
+                    ", hitRate=" + hitRate() +
+                    '}';
+        }
+    }
+
+    private static final class Node<T> {
+        private final T value;
+        private final int weight;
+
+        private Node(T value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Stripe<T> {
+
+        private final long maxBytes;
+        private final long maxProtectedBytes;
+        //access ordered, eldest first
+        private final LinkedHashMap<Long, Node<T>> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Long, Node<T>> protectedBlocks = new LinkedHashMap<>(16, 0.75f, true);
+        private long probationBytes;
+        private long protectedBytes;
+
+        private Stripe(long maxBytes) {
+            this.maxBytes = maxBytes;
+            this.maxProtectedBytes = (long) (maxBytes * PROTECTED_RATIO);
+        }
+
+        private synchronized T get(long key) {
+            Node<T> node = protectedBlocks.get(key);
+            if (node != null) {
+                return node.value;
+            }
+            node = probation.remove(key);
+            if (node == null) {
+                return null;
+            }
+            //second hit, promote and demote the protected LRU blocks if needed
+            probationBytes -= node.weight;
+            protectedBlocks.put(key, node);
+            protectedBytes += node.weight;
+            Iterator<Map.Entry<Long, Node<T>>> it = protectedBlocks.entrySet().iterator();
+            while (protectedBytes > maxProtectedBytes && it.hasNext()) {
+                Map.Entry<Long, Node<T>> eldest = it.next();
+                if (eldest.getKey() == key) {
+                    continue;
+                }
+                it.remove();
+                protectedBytes -= eldest.getValue().weight;
+                probation.put(eldest.getKey(), eldest.getValue());
+                probationBytes += eldest.getValue().weight;
+            }
+            return node.value;
+        }
+
+        //returns the number of evicted blocks
+        private synchronized int put(long key, T value, int weight) {
+            if (weight > maxBytes || probation.containsKey(key) || protectedBlocks.containsKey(key)) {
+                return 0;
+            }
+            probation.put(key, new Node<>(value, weight));
+            probationBytes += weight;
+
+            int evicted = 0;
+            while (probationBytes + protectedBytes > maxBytes) {
+                LinkedHashMap<Long, Node<T>> victims = probation.isEmpty() ? protectedBlocks : probation;
+                Iterator<Node<T>> it = victims.values().iterator();
+                Node<T> eldest = it.next();
+                it.remove();
+                if (victims == probation) {
+                    probationBytes -= eldest.weight;
+                } else {
+                    protectedBytes -= eldest.weight;
+                }
+                evicted++;
+            }
+            return evicted;
+        }
+
+        private synchronized void removeSegment(int segmentId) {
+            probationBytes -= removeSegment(probation, segmentId);
+            protectedBytes -= removeSegment(protectedBlocks, segmentId);
+        }
+
+        private static <T> long removeSegment(Map<Long, Node<T>> blocks, int segmentId) {
+            long removed = 0;
+            Iterator<Map.Entry<Long, Node<T>>> it = blocks.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Long, Node<T>> entry = it.next();
+                if ((entry.getKey() >>> POSITION_BITS) == segmentId) {
+                    removed += entry.getValue().weight;
+                    it.remove();
+                }
+            }
+            return removed;
+        }
+    }
+}
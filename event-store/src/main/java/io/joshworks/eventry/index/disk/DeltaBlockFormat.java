@@ -0,0 +1,139 @@
+package io.joshworks.eventry.index.disk;
+
+import io.joshworks.eventry.index.IndexEntry;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+//Compact IndexBlock encoding, entries must be sorted by stream and version
+//Format:
+//streamCount(varint) | (stream(8) | count(varint) | runs(varint) | (versionGap(varint) | runLength(varint))* | positions)*
+//Consecutive versions are stored as runs, the first run gap is the first version itself.
+//Positions: first position(varint) | (zigzag delta from previous position(varint))*
+//Decoding produces the fixed width layout used by PackedBlock and IndexBlock: (stream | count | (version | position)*)*
+final class DeltaBlockFormat {
+
+    private static final int MAX_VARINT_BYTES = 10;
+
+    private DeltaBlockFormat() {
+
+    }
+
+    static ByteBuffer encode(List<IndexEntry> entries) {
+        //worst case, every entry is a new stream with a non contiguous version
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_VARINT_BYTES + entries.size() * (Long.BYTES + MAX_VARINT_BYTES * 5));
+        int streams = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            if (i == 0 || entries.get(i).stream != entries.get(i - 1).stream) {
+                streams++;
+            }
+        }
+        putVarint(buffer, streams);
+
+        int start = 0;
+        while (start < entries.size()) {
+            long stream = entries.get(start).stream;
+            int end = start;
+            while (end < entries.size() && entries.get(end).stream == stream) {
+                end++;
+            }
+            writeStream(buffer, entries, start, end);
+            start = end;
+        }
+        return buffer.flip();
+    }
+
+    private static void writeStream(ByteBuffer buffer, List<IndexEntry> entries, int start, int end) {
+        buffer.putLong(entries.get(start).stream);
+        putVarint(buffer, end - start);
+
+        int runs = 1;
+        for (int i = start + 1; i < end; i++) {
+            if (entries.get(i).version != entries.get(i - 1).version + 1) {
+                runs++;
+            }
+        }
+        putVarint(buffer, runs);
+        int previousEnd = -1;
+        int runStart = start;
+        for (int i = start + 1; i <= end; i++) {
+            if (i == end || entries.get(i).version != entries.get(i - 1).version + 1) {
+                int firstVersion = entries.get(runStart).version;
+                putVarint(buffer, firstVersion - previousEnd - 1);
+                putVarint(buffer, i - runStart);
+                previousEnd = entries.get(i - 1).version;
+                runStart = i;
+            }
+        }
+
+        long previous = entries.get(start).position;
+        putVarint(buffer, previous);
+        for (int i = start + 1; i < end; i++) {
+            long position = entries.get(i).position;
+            putVarint(buffer, zigzag(position - previous));
+            previous = position;
+        }
+    }
+
+    static ByteBuffer decode(ByteBuffer encoded, int entries) {
+        int streams = (int) getVarint(encoded);
+        ByteBuffer decoded = ByteBuffer.allocate(streams * PackedBlock.HEADER_BYTES + entries * PackedBlock.ENTRY_BYTES);
+        for (int s = 0; s < streams; s++) {
+            long stream = encoded.getLong();
+            int count = (int) getVarint(encoded);
+            decoded.putLong(stream);
+            decoded.putInt(count);
+
+            int versionsStart = decoded.position();
+            int runs = (int) getVarint(encoded);
+            int version = -1;
+            int idx = 0;
+            for (int r = 0; r < runs; r++) {
+                version += (int) getVarint(encoded) + 1;
+                int runLength = (int) getVarint(encoded);
+                for (int i = 0; i < runLength; i++) {
+                    decoded.putInt(versionsStart + (idx++) * PackedBlock.ENTRY_BYTES, version + i);
+                }
+                version += runLength - 1;
+            }
+
+            long position = getVarint(encoded);
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    position += unzigzag(getVarint(encoded));
+                }
+                decoded.putLong(versionsStart + i * PackedBlock.ENTRY_BYTES + Integer.BYTES, position);
+            }
+            decoded.position(versionsStart + count * PackedBlock.ENTRY_BYTES);
+        }
+        return decoded.flip();
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarint(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -4,6 +4,7 @@ import io.joshworks.eventry.index.Index;
 import io.joshworks.eventry.index.IndexEntry;
 import io.joshworks.eventry.index.Range;
 import io.joshworks.fstore.core.Codec;
+import io.joshworks.fstore.core.RuntimeIOException;
 import io.joshworks.fstore.core.Serializer;
 import io.joshworks.fstore.core.io.DataReader;
 import io.joshworks.fstore.core.io.Storage;
@@ -14,32 +15,102 @@ import io.joshworks.fstore.log.appender.Config;
 import io.joshworks.fstore.log.appender.LogAppender;
 import io.joshworks.fstore.log.appender.SegmentFactory;
 import io.joshworks.fstore.log.appender.naming.ShortUUIDNamingStrategy;
+import io.joshworks.fstore.log.segment.Log;
 import io.joshworks.fstore.log.segment.Type;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class IndexAppender extends LogAppender<IndexEntry, IndexSegment> implements Index {
 
-    public IndexAppender(Config<IndexEntry> config, int numElements, Codec codec) {
-        super(config, new IndexSegmentFactory(config.directory, numElements, codec));
+    private final BlockCache<PackedBlock> blockCache;
+
+    public IndexAppender(Config<IndexEntry> config, int numElements, Codec codec, long blockCacheSize) {
+        this(config, numElements, codec, blockCacheSize, false);
+    }
+
+    /**
+     * @param mmapSegments Serve block reads of sealed segments from read only mappings instead of the storage
+     */
+    public IndexAppender(Config<IndexEntry> config, int numElements, Codec codec, long blockCacheSize, boolean mmapSegments) {
+        this(config, numElements, codec, new BlockCache<>(blockCacheSize, PackedBlock::weight), mmapSegments);
+    }
+
+    private IndexAppender(Config<IndexEntry> config, int numElements, Codec codec, BlockCache<PackedBlock> blockCache, boolean mmapSegments) {
+        super(config, new IndexSegmentFactory(config.directory, numElements, codec, blockCache, mmapSegments));
+        this.blockCache = blockCache;
+    }
+
+    public BlockCache.Stats blockCacheStats() {
+        return blockCache.stats();
+    }
+
+    //number of segments of each level, the segment being written is part of level zero
+    public SortedMap<Integer, Integer> segmentsPerLevel() {
+        return streamSegments(Direction.FORWARD).collect(Collectors.toMap(Log::level, segment -> 1, Integer::sum, TreeMap::new));
+    }
+
+    public SortedMap<Integer, Long> entriesPerLevel() {
+        return streamSegments(Direction.FORWARD).collect(Collectors.toMap(Log::level, Log::entries, Long::sum, TreeMap::new));
+    }
+
+    //sizes the filter of the segment about to be written, ignored if the segment already has entries
+    public void expectStreams(long streams) {
+        IndexSegment current = current();
+        if (current.entries() == 0) {
+            current.newBloomFilter(streams);
+        }
     }
 
 
-    //FIXME not releasing readers
+    //segments that can't have the stream are skipped without being read
     @Override
     public LogIterator<IndexEntry> iterator(Direction direction, Range range) {
-        List<LogIterator<IndexEntry>> iterators = streamSegments(direction)
-                .map(idxSeg -> idxSeg.iterator(direction, range))
+        List<IndexSegment> candidates = sealedSegments(direction).stream()
+                .filter(segment -> segment.mightHaveEntries(range))
                 .collect(Collectors.toList());
+        if (inVersionOrder(candidates, direction, range.stream)) {
+            return new RangeIterator(candidates.iterator(), direction, range);
+        }
+        return new MergingRangeIterator(candidates, direction, range);
+    }
 
+    //versions of a stream grow from older to newer segments, unless the stream was deleted and created again
+    private static boolean inVersionOrder(List<IndexSegment> segments, Direction direction, long stream) {
+        for (int i = 1; i < segments.size(); i++) {
+            IndexSegment older = Direction.FORWARD.equals(direction) ? segments.get(i - 1) : segments.get(i);
+            IndexSegment newer = Direction.FORWARD.equals(direction) ? segments.get(i) : segments.get(i - 1);
+            if (older.version(stream) >= newer.firstVersion(stream)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public LogIterator<IndexEntry> iterator(Direction direction) {
+        List<LogIterator<IndexEntry>> iterators = sealedSegments(direction).stream()
+                .map(segment -> segment.iterator(direction))
+                .collect(Collectors.toList());
         return Iterators.concat(iterators);
     }
 
+    //the segment being written only becomes visible once rolled, its entries are still served from the memtable
+    private List<IndexSegment> sealedSegments(Direction direction) {
+        return streamSegments(direction).filter(Log::readOnly).collect(Collectors.toList());
+    }
+
     @Override
     public Stream<IndexEntry> stream(Direction direction) {
         return null;
@@ -52,10 +123,17 @@ public class IndexAppender extends LogAppender<IndexEntry, IndexSegment> impleme
 
     @Override
     public Optional<IndexEntry> get(long stream, int version) {
-        Iterator<IndexSegment> segments = segments(Direction.BACKWARD);
-        while (segments.hasNext()) {
-            IndexSegment next = segments.next();
-            Optional<IndexEntry> fromDisk = next.get(stream, version);
+        Range range = Range.of(stream, version, version + 1);
+        List<IndexSegment> candidates = new ArrayList<>();
+        for (IndexSegment segment : sealedSegments(Direction.BACKWARD)) {
+            //key range first, then filter and stream directory, none of them reads a block
+            if (segment.midpoints.inRange(range) && segment.mightHaveEntries(range)) {
+                candidates.add(segment);
+            }
+        }
+        //the stream directory is exact, there's more than one candidate only for a recreated stream, newest first
+        for (IndexSegment candidate : candidates) {
+            Optional<IndexEntry> fromDisk = candidate.get(stream, version);
             if (fromDisk.isPresent()) {
                 return fromDisk;
             }
@@ -65,9 +143,7 @@ public class IndexAppender extends LogAppender<IndexEntry, IndexSegment> impleme
 
     @Override
     public int version(long stream) {
-        LogIterator<IndexSegment> segments = segments(Direction.BACKWARD);
-        while (segments.hasNext()) {
-            IndexSegment segment = segments.next();
+        for (IndexSegment segment : sealedSegments(Direction.BACKWARD)) {
             int version = segment.version(stream);
             if (version >= 0) {
                 return version;
@@ -88,17 +164,199 @@ public class IndexAppender extends LogAppender<IndexEntry, IndexSegment> impleme
         private final File directory;
         private final int numElements;
         private final Codec codec;
+        private final BlockCache<PackedBlock> blockCache;
+        private final boolean mmap;
 
-        private IndexSegmentFactory(File directory, int numElements, Codec codec) {
+        private IndexSegmentFactory(File directory, int numElements, Codec codec, BlockCache<PackedBlock> blockCache, boolean mmap) {
             this.directory = directory;
             this.numElements = numElements;
             this.codec = codec;
+            this.blockCache = blockCache;
+            this.mmap = mmap;
         }
 
         @Override
         public IndexSegment createOrOpen(Storage storage, Serializer<IndexEntry> serializer, DataReader reader, String magic, Type type) {
-            return new IndexSegment(storage, new IndexBlockSerializer(codec), reader, magic, type, directory, numElements);
+            return new IndexSegment(storage, new IndexBlockSerializer(codec), reader, magic, type, directory, numElements, blockCache, mmap);
         }
     }
 
+    /**
+     * Versions of the stream grow across the segments, so concatenating the segments in order yields the range in order.
+     * Each segment iterator is closed as soon as it's exhausted, the iterator stops once the last version of the range is returned.
+     */
+    private static final class RangeIterator implements LogIterator<IndexEntry> {
+
+        private final Iterator<IndexSegment> segments;
+        private final Direction direction;
+        private final Range range;
+        private LogIterator<IndexEntry> current;
+        private int lastVersion = IndexEntry.NO_VERSION;
+        private boolean closed;
+
+        private RangeIterator(Iterator<IndexSegment> segments, Direction direction, Range range) {
+            this.segments = segments;
+            this.direction = direction;
+            this.range = range;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (closed) {
+                return false;
+            }
+            while (current == null || !current.hasNext()) {
+                closeCurrent();
+                IndexSegment segment = nextCandidate();
+                if (segment == null || rangeExhausted()) {
+                    close();
+                    return false;
+                }
+                current = segment.iterator(direction, range);
+            }
+            return true;
+        }
+
+        @Override
+        public IndexEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            IndexEntry entry = current.next();
+            lastVersion = entry.version;
+            return entry;
+        }
+
+        private IndexSegment nextCandidate() {
+            while (segments.hasNext()) {
+                IndexSegment segment = segments.next();
+                if (segment.mightHaveEntries(range)) {
+                    return segment;
+                }
+            }
+            return null;
+        }
+
+        private boolean rangeExhausted() {
+            if (lastVersion == IndexEntry.NO_VERSION) {
+                return false;
+            }
+            if (Direction.FORWARD.equals(direction)) {
+                return lastVersion >= range.endVersionExclusive - 1;
+            }
+            return lastVersion <= range.startVersionInclusive;
+        }
+
+        private void closeCurrent() {
+            if (current == null) {
+                return;
+            }
+            try {
+                current.close();
+            } catch (IOException e) {
+                throw RuntimeIOException.of(e);
+            } finally {
+                current = null;
+            }
+        }
+
+        @Override
+        public long position() {
+            return current == null ? 0 : current.position();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            closeCurrent();
+        }
+    }
+
+    /**
+     * Used when the versions of the stream overlap across segments: a deleted stream created again starts over from version zero.
+     * All segments are read at once and merged by version, on a duplicated version the entry of the newest segment is kept,
+     * the same result a merge of those segments produces.
+     */
+    private static final class MergingRangeIterator implements LogIterator<IndexEntry> {
+
+        private final List<LogIterator<IndexEntry>> iterators = new ArrayList<>();
+        private final PriorityQueue<Head> heads;
+        private IndexEntry next;
+        private IndexEntry last;
+        private long position;
+
+        private MergingRangeIterator(List<IndexSegment> segments, Direction direction, Range range) {
+            Comparator<Head> byVersion = Comparator.comparingInt(head -> head.entry.version);
+            if (Direction.BACKWARD.equals(direction)) {
+                byVersion = byVersion.reversed();
+            }
+            this.heads = new PriorityQueue<>(byVersion.thenComparingInt(head -> head.age));
+            for (int i = 0; i < segments.size(); i++) {
+                int age = Direction.FORWARD.equals(direction) ? segments.size() - 1 - i : i; //zero is the newest
+                LogIterator<IndexEntry> iterator = segments.get(i).iterator(direction, range);
+                iterators.add(iterator);
+                advance(iterator, age);
+            }
+        }
+
+        private void advance(LogIterator<IndexEntry> iterator, int age) {
+            if (iterator.hasNext()) {
+                heads.add(new Head(iterator.next(), age, iterator));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !heads.isEmpty()) {
+                Head head = heads.poll();
+                //duplicated versions come newest segment first
+                if (last == null || last.version != head.entry.version) {
+                    next = head.entry;
+                    position = head.iterator.position();
+                }
+                last = head.entry;
+                advance(head.iterator, head.age);
+            }
+            return next != null;
+        }
+
+        @Override
+        public IndexEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            IndexEntry entry = next;
+            next = null;
+            return entry;
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public void close() {
+            for (LogIterator<IndexEntry> iterator : iterators) {
+                try {
+                    iterator.close();
+                } catch (IOException e) {
+                    throw RuntimeIOException.of(e);
+                }
+            }
+            heads.clear();
+        }
+
+        private static final class Head {
+            private final IndexEntry entry;
+            private final int age;
+            private final LogIterator<IndexEntry> iterator;
+
+            private Head(IndexEntry entry, int age, LogIterator<IndexEntry> iterator) {
+                this.entry = entry;
+                this.age = age;
+                this.iterator = iterator;
+            }
+        }
+    }
 }
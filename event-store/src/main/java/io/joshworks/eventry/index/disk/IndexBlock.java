@@ -9,19 +9,38 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
-//Format:
+//In memory format (see DeltaBlockFormat for the disk format):
 //streamHash-qtd-version1|pos1-version2|pos2-versionN|posN
 public class IndexBlock extends Block<IndexEntry> {
 
-    private final List<IndexEntry> cached = new ArrayList<>();
+    private List<IndexEntry> cached;
+    //uncompressed data of a read block, unpacked into entries only when needed
+    private final ByteBuffer packed;
 
     public IndexBlock(int maxSize) {
         super(null, maxSize);
+        this.cached = new ArrayList<>();
+        this.packed = null;
     }
 
     protected IndexBlock(ByteBuffer data) {
         super(null, new ArrayList<>(), data);
-        this.cached.addAll(unpack(data));
+        this.packed = data.asReadOnlyBuffer();
+    }
+
+    //uncompressed packed data, for flyweight reads without creating entries
+    ByteBuffer packed() {
+        if (packed == null) {
+            throw new IllegalStateException("Block was not read from disk");
+        }
+        return packed.duplicate();
+    }
+
+    private List<IndexEntry> cached() {
+        if (cached == null) {
+            cached = unpack(packed.duplicate());
+        }
+        return cached;
     }
 
     @Override
@@ -29,50 +48,16 @@ public class IndexBlock extends Block<IndexEntry> {
         if (readOnly) {
             throw new IllegalStateException("Block is read only");
         }
-        cached.add(data);
-        return cached.size() * IndexEntry.BYTES >= maxSize;
+        cached().add(data);
+        return cached().size() * IndexEntry.BYTES >= maxSize;
     }
 
     @Override
     public ByteBuffer pack(Codec codec) {
-        if (cached.isEmpty()) {
+        if (cached().isEmpty()) {
             return ByteBuffer.allocate(0);
         }
-        int maxVersionSizeOverhead = entryCount() * Integer.BYTES;
-        var packed = ByteBuffer.allocate(buffer.position() + maxVersionSizeOverhead);
-
-        IndexEntry last = null;
-        List<Integer> versions = new ArrayList<>();
-        List<Long> positions = new ArrayList<>();
-        for (IndexEntry indexEntry : cached) {
-            if (last == null) {
-                last = indexEntry;
-            }
-            if (last.stream != indexEntry.stream) {
-                writeToBuffer(packed, last.stream, versions, positions);
-                versions = new ArrayList<>();
-                positions = new ArrayList<>();
-            }
-
-            versions.add(indexEntry.version);
-            positions.add(indexEntry.position);
-            last = indexEntry;
-        }
-        if(last != null && !versions.isEmpty()) {
-            writeToBuffer(packed, last.stream, versions, positions);
-        }
-
-        packed.flip();
-        return codec.compress(packed);
-    }
-
-    private void writeToBuffer(ByteBuffer buffer, long stream, List<Integer> versions, List<Long> positions) {
-        buffer.putLong(stream);
-        buffer.putInt(versions.size());
-        for (int i = 0; i < versions.size(); i++) {
-            buffer.putInt(versions.get(i));
-            buffer.putLong(positions.get(i));
-        }
+        return codec.compress(DeltaBlockFormat.encode(cached()));
     }
 
     private List<IndexEntry> unpack(ByteBuffer readBuffer) {
@@ -91,33 +76,33 @@ public class IndexBlock extends Block<IndexEntry> {
 
     @Override
     public int entryCount() {
-        return cached.size();
+        return cached().size();
     }
 
     @Override
     public List<IndexEntry> entries() {
-        return new ArrayList<>(cached);
+        return new ArrayList<>(cached());
     }
 
     @Override
     public IndexEntry first() {
-        if (cached.isEmpty()) {
+        if (cached().isEmpty()) {
             return null;
         }
-        return cached.get(0);
+        return cached().get(0);
     }
 
     @Override
     public IndexEntry last() {
-        if (cached.isEmpty()) {
+        if (cached().isEmpty()) {
             return null;
         }
-        return cached.get(cached.size() - 1);
+        return cached().get(cached().size() - 1);
     }
 
     @Override
     public IndexEntry get(int pos) {
-        return cached.get(pos);
+        return cached().get(pos);
     }
 
     @Override
@@ -128,6 +113,6 @@ public class IndexBlock extends Block<IndexEntry> {
 
     @Override
     public boolean isEmpty() {
-        return cached.isEmpty();
+        return cached().isEmpty();
     }
 }
@@ -5,8 +5,12 @@ import io.joshworks.fstore.core.Serializer;
 
 import java.nio.ByteBuffer;
 
+//Header: -format(4) | entries(4)
+//Blocks written before the format was versioned start with the number of entries (never negative) and no format
 public class IndexBlockSerializer implements Serializer<IndexBlock> {
 
+    static final int DELTA_FORMAT = 2;
+
     private final Codec codec;
 
     public IndexBlockSerializer(Codec codec) {
@@ -18,7 +22,8 @@ public class IndexBlockSerializer implements Serializer<IndexBlock> {
         ByteBuffer packed = data.pack(codec);
         int entries = data.entryCount();
 
-        var withHeader = ByteBuffer.allocate(packed.remaining() + Integer.BYTES);
+        var withHeader = ByteBuffer.allocate(packed.remaining() + Integer.BYTES * 2);
+        withHeader.putInt(-DELTA_FORMAT);
         withHeader.putInt(entries);
         withHeader.put(packed);
 
@@ -32,8 +37,15 @@ public class IndexBlockSerializer implements Serializer<IndexBlock> {
 
     @Override
     public IndexBlock fromBytes(ByteBuffer buffer) {
+        int header = buffer.getInt();
+        if (header >= 0) { //legacy format, header is the number of entries and data is the fixed width layout
+            return new IndexBlock(codec.decompress(buffer));
+        }
+        if (header != -DELTA_FORMAT) {
+            throw new IllegalStateException("Unknown index block format: " + (-header));
+        }
         int entries = buffer.getInt();
         ByteBuffer decompressed = codec.decompress(buffer);
-        return new IndexBlock(decompressed);
+        return new IndexBlock(DeltaBlockFormat.decode(decompressed, entries));
     }
 }
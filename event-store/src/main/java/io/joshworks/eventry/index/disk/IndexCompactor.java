@@ -1,21 +1,181 @@
 package io.joshworks.eventry.index.disk;
 
+import io.joshworks.eventry.index.CompactionThrottle;
 import io.joshworks.eventry.index.IndexEntry;
-import io.joshworks.fstore.log.appender.merge.UniqueMergeCombiner;
+import io.joshworks.eventry.index.Tombstones;
+import io.joshworks.fstore.core.RuntimeIOException;
+import io.joshworks.fstore.log.Direction;
+import io.joshworks.fstore.log.LogIterator;
+import io.joshworks.fstore.log.appender.compaction.combiner.SegmentCombiner;
 import io.joshworks.fstore.log.segment.Log;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
-public class IndexCompactor extends UniqueMergeCombiner<IndexEntry> {
+/**
+ * K-way merge of sorted index segments, entries with the same stream and version are written once.
+ * Entries of deleted or truncated streams are dropped, based on the tombstones captured when the merge starts.
+ * Writes are paced by the compaction throttle, in chunks so the append path is checked regularly without per entry overhead.
+ */
+public class IndexCompactor implements SegmentCombiner<IndexEntry> {
+
+    private static final int THROTTLE_CHUNK_ENTRIES = 4096;
+
+    private final CompactionThrottle throttle;
+    private final Supplier<Tombstones> tombstones;
+
+    //totals since the index was opened, merges run in the compaction thread
+    private final LongAdder merges = new LongAdder();
+    private final LongAdder entriesMerged = new LongAdder();
+    private final LongAdder entriesWritten = new LongAdder();
+    private final LongAdder entriesDropped = new LongAdder();
+    private final LongAdder filtersMerged = new LongAdder();
+    private final LongAdder bytesMerged = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    public IndexCompactor() {
+        this(CompactionThrottle.unlimited(), () -> Tombstones.NONE);
+    }
+
+    public IndexCompactor(CompactionThrottle throttle, Supplier<Tombstones> tombstones) {
+        this.throttle = throttle;
+        this.tombstones = tombstones;
+    }
 
     @Override
     public void merge(List<? extends Log<IndexEntry>> segments, Log<IndexEntry> output) {
-//        BloomFilter
         IndexSegment indexSegment = (IndexSegment) output;
+        List<IndexSegment> sources = segments.stream().map(IndexSegment.class::cast).collect(Collectors.toList());
         long totalEntries = segments.stream().mapToLong(Log::entries).sum();
-        indexSegment.newBloomFilter(totalEntries);
-        super.merge(segments, output);
+        if (indexSegment.mergeBloomFilters(sources)) {
+            filtersMerged.increment();
+        } else {
+            //each distinct stream is hashed once while appending, the sum is an upper bound as streams can be in more than one segment
+            long streams = sources.stream().mapToLong(IndexSegment::estimatedStreams).sum();
+            indexSegment.newBloomFilter(Math.min(totalEntries, streams));
+        }
+        Tombstones dead = tombstones.get();
+        throttle.beginMerge();
+        try {
+            mergeSorted(segments, output, dead);
+        } finally {
+            throttle.endMerge();
+        }
+
+        merges.increment();
+        entriesMerged.add(totalEntries);
+        bytesMerged.add(segments.stream().mapToLong(Log::position).sum());
+        entriesWritten.add(output.entries());
+        bytesWritten.add(output.position());
+    }
+
+    private void mergeSorted(List<? extends Log<IndexEntry>> segments, Log<IndexEntry> output, Tombstones dead) {
+        List<LogIterator<IndexEntry>> iterators = new ArrayList<>(segments.size());
+        try {
+            PriorityQueue<Head> heads = new PriorityQueue<>();
+            for (int i = 0; i < segments.size(); i++) {
+                LogIterator<IndexEntry> iterator = segments.get(i).iterator(Direction.FORWARD);
+                iterators.add(iterator);
+                if (iterator.hasNext()) {
+                    heads.add(new Head(iterator.next(), i, iterator));
+                }
+            }
+            IndexEntry last = null;
+            int firstLiveVersion = 0;
+            long dropped = 0;
+            int pending = 0;
+            while (!heads.isEmpty()) {
+                Head head = heads.poll();
+                IndexEntry entry = head.entry;
+                if (last == null || last.stream != entry.stream) { //one lookup per stream, entries are sorted
+                    firstLiveVersion = dead.firstLiveVersion(entry.stream);
+                }
+                //duplicates are sorted newest segment first, so the newest entry is kept
+                boolean duplicate = last != null && last.equals(entry);
+                last = entry;
+                if (!duplicate && entry.version < firstLiveVersion) {
+                    dropped++;
+                } else if (!duplicate) {
+                    output.append(entry);
+                    if (++pending == THROTTLE_CHUNK_ENTRIES) {
+                        throttle.acquire((long) pending * IndexEntry.BYTES);
+                        pending = 0;
+                    }
+                }
+                if (head.iterator.hasNext()) {
+                    heads.add(new Head(head.iterator.next(), head.segmentIdx, head.iterator));
+                }
+            }
+            if (pending > 0) {
+                throttle.acquire((long) pending * IndexEntry.BYTES);
+            }
+            entriesDropped.add(dropped);
+        } finally {
+            for (LogIterator<IndexEntry> iterator : iterators) {
+                closeIterator(iterator);
+            }
+        }
+    }
+
+    private static void closeIterator(LogIterator<IndexEntry> iterator) {
+        try {
+            iterator.close();
+        } catch (IOException e) {
+            throw RuntimeIOException.of(e);
+        }
+    }
+
+    public long merges() {
+        return merges.sum();
+    }
+
+    public long entriesMerged() {
+        return entriesMerged.sum();
+    }
+
+    public long entriesWritten() {
+        return entriesWritten.sum();
+    }
+
+    //entries of deleted or truncated streams that were not copied forward
+    public long entriesDropped() {
+        return entriesDropped.sum();
+    }
+
+    //merges whose output filter was built from the input filters, without hashing
+    public long filtersMerged() {
+        return filtersMerged.sum();
+    }
+
+    public long bytesMerged() {
+        return bytesMerged.sum();
+    }
+
+    public long bytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    private static final class Head implements Comparable<Head> {
+        private final IndexEntry entry;
+        private final int segmentIdx;
+        private final LogIterator<IndexEntry> iterator;
+
+        private Head(IndexEntry entry, int segmentIdx, LogIterator<IndexEntry> iterator) {
+            this.entry = entry;
+            this.segmentIdx = segmentIdx;
+            this.iterator = iterator;
+        }
 
+        @Override
+        public int compareTo(Head other) {
+            int cmp = entry.compareTo(other.entry);
+            return cmp != 0 ? cmp : Integer.compare(other.segmentIdx, segmentIdx);
+        }
     }
 
 }
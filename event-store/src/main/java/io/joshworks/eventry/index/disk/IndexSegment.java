@@ -9,31 +9,53 @@ import io.joshworks.fstore.core.RuntimeIOException;
 import io.joshworks.fstore.core.Serializer;
 import io.joshworks.fstore.core.io.DataReader;
 import io.joshworks.fstore.core.io.Storage;
-import io.joshworks.eventry.index.filter.BloomFilterHasher;
 import io.joshworks.eventry.index.midpoint.Midpoint;
 import io.joshworks.fstore.log.Direction;
 import io.joshworks.fstore.log.Iterators;
 import io.joshworks.fstore.log.LogIterator;
 import io.joshworks.fstore.log.segment.Type;
 import io.joshworks.fstore.log.segment.block.BlockSegment;
-import io.joshworks.fstore.serializer.Serializers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collections;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Stream;
 
 public class IndexSegment extends BlockSegment<IndexEntry, IndexBlock> implements Index {
 
-    BloomFilter<Long> filter;
+    //created on the first append when there's no filter on disk, sized by newBloomFilter or the segment capacity
+    volatile BloomFilter filter;
+    private final int numElements;
+    private long lastStream;
+    private boolean hasLastStream;
+    //the filter was merged from the input segments and already has every stream that will be appended
+    private boolean filterComplete;
     final Midpoints midpoints;
+    final StreamDirectory streams;
     final File directory;
+    private final BlockCache<PackedBlock> blockCache;
+    private final int cacheId;
+    private final Serializer<IndexBlock> blockSerializer;
+    private final boolean mmap;
+    private final Object mapLock = new Object();
+    private volatile MappedFile mappedFile;
+    private volatile boolean unmapped; //deleted, closed or failed to map, reads go through the storage
     private static final int MAX_BLOCK_SIZE = 4096;
+    //length(4) | checksum(4), as written by the log before each block, checked against a storage read on every new mapping
+    private static final int RECORD_HEADER_BYTES = Integer.BYTES * 2;
+    private final LongAdder mappedBlockReads = new LongAdder();
 
     private static final double FALSE_POSITIVE_PROB = 0.01;
+    private static final double MAX_MERGED_FALSE_POSITIVE_PROB = FALSE_POSITIVE_PROB * 2;
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexSegment.class);
 
     IndexSegment(Storage storage,
                         Serializer<IndexBlock> serializer,
@@ -41,11 +63,81 @@ public class IndexSegment extends BlockSegment<IndexEntry, IndexBlock> implement
                         String magic,
                         Type type,
                         File directory,
-                        int numElements) {
+                        int numElements,
+                        BlockCache<PackedBlock> blockCache) {
+        this(storage, serializer, reader, magic, type, directory, numElements, blockCache, false);
+    }
+
+    /**
+     * @param mmap Serve block reads of the segment from a read only mapping once it's sealed
+     */
+    IndexSegment(Storage storage,
+                        Serializer<IndexBlock> serializer,
+                        DataReader reader,
+                        String magic,
+                        Type type,
+                        File directory,
+                        int numElements,
+                        BlockCache<PackedBlock> blockCache,
+                        boolean mmap) {
         super(storage, new IndexEntrySerializer(), serializer, MAX_BLOCK_SIZE, reader, magic, type);
+        this.blockSerializer = serializer;
+        this.mmap = mmap;
         this.directory = directory;
+        this.blockCache = blockCache;
+        this.cacheId = blockCache.newSegmentId();
+        this.numElements = numElements;
         this.midpoints = new Midpoints(directory, name());
-        this.filter = BloomFilter.openOrCreate(directory, name(), numElements, FALSE_POSITIVE_PROB, BloomFilterHasher.Murmur64(Serializers.LONG));
+        this.streams = new StreamDirectory(directory, name());
+        this.filter = openFilter();
+        if (!streams.existed() && entries() > 0) {
+            rebuildStreamDirectory();
+        }
+    }
+
+    //segments written before the stream directory existed, the first block of each stream comes from the midpoints
+    private void rebuildStreamDirectory() {
+        try (LogIterator<IndexEntry> iterator = iterator(Direction.FORWARD)) {
+            long last = 0;
+            boolean first = true;
+            while (iterator.hasNext()) {
+                IndexEntry entry = iterator.next();
+                long blockPosition = first || entry.stream != last ? midpoints.blockPosition(entry.stream, entry.version) : -1;
+                streams.add(entry.stream, entry.version, blockPosition);
+                first = false;
+                last = entry.stream;
+            }
+        } catch (IOException e) {
+            throw RuntimeIOException.of(e);
+        }
+        streams.write();
+    }
+
+    private BloomFilter openFilter() {
+        if (BloomFilter.exists(directory, name())) {
+            return BloomFilter.openOrCreate(directory, name(), numElements, FALSE_POSITIVE_PROB);
+        }
+        if (entries() == 0) {
+            return null;
+        }
+        //missing or old format filter
+        BloomFilter bloomFilter = BloomFilter.openOrCreate(directory, name(), entries(), FALSE_POSITIVE_PROB);
+        try (LogIterator<IndexEntry> iterator = iterator(Direction.FORWARD)) {
+            long last = 0;
+            boolean first = true;
+            while (iterator.hasNext()) {
+                long stream = iterator.next().stream;
+                if (first || stream != last) {
+                    bloomFilter.add(stream);
+                }
+                first = false;
+                last = stream;
+            }
+        } catch (IOException e) {
+            throw RuntimeIOException.of(e);
+        }
+        bloomFilter.write();
+        return bloomFilter;
     }
 
     @Override
@@ -59,13 +151,25 @@ public class IndexSegment extends BlockSegment<IndexEntry, IndexBlock> implement
         Midpoint head = new Midpoint(block.first(), position);
         Midpoint tail = new Midpoint(block.last(), position);
         midpoints.add(head, tail);
+        for (int i = 0; i < block.entryCount(); i++) {
+            IndexEntry entry = block.get(i);
+            streams.add(entry.stream, entry.version, position);
+        }
 
         return super.writeBlock();
     }
 
     @Override
     public long append(IndexEntry data) {
-        filter.add(data.stream);
+        if (filter == null) {
+            newBloomFilter(numElements);
+        }
+        //entries are sorted by stream, the same stream is only added once
+        if (!filterComplete && (!hasLastStream || data.stream != lastStream)) {
+            filter.add(data.stream);
+            lastStream = data.stream;
+            hasLastStream = true;
+        }
         return super.append(data);
     }
 
@@ -73,22 +177,88 @@ public class IndexSegment extends BlockSegment<IndexEntry, IndexBlock> implement
     public synchronized void flush() {
         super.flush(); //flush super first, so writeBlock is called
         midpoints.write();
-        filter.write();
+        streams.write();
+        if (filter != null) {
+            filter.write();
+        }
+    }
+
+    @Override
+    public void close() {
+        unmap();
+        super.close();
     }
 
     @Override
     public void delete() {
+        unmap(); //readers still holding the mapping release it when they're done
+        blockCache.invalidate(cacheId);
         super.delete();
-        filter.delete();
+        if (filter != null) {
+            filter.delete();
+        }
         midpoints.delete();
+        streams.delete();
+    }
+
+    //must be called before the first append, the filter is sized by the number of distinct streams
+    void newBloomFilter(long numStreams) {
+        this.filter = BloomFilter.openOrCreate(directory, name(), Math.max(1, numStreams), FALSE_POSITIVE_PROB);
+        this.hasLastStream = false;
+        this.filterComplete = false;
+    }
+
+    /**
+     * Must be called before the first append. Uses the union of the source filters instead of hashing every stream again,
+     * only when they use the same hashes and the union, folded to the smallest filter, keeps the false positive probability acceptable.
+     * Streams dropped while merging stay in the filter, which only costs extra false positives.
+     * @return false if the filters can't be merged, a new filter must be sized instead
+     */
+    boolean mergeBloomFilters(List<IndexSegment> sources) {
+        List<BloomFilter> filters = new ArrayList<>(sources.size());
+        for (IndexSegment source : sources) {
+            BloomFilter sourceFilter = source.filter;
+            if (sourceFilter == null) {
+                if (source.entries() > 0) {
+                    return false;
+                }
+                continue;
+            }
+            if (!filters.isEmpty() && !filters.get(0).compatibleWith(sourceFilter)) {
+                return false;
+            }
+            filters.add(sourceFilter);
+        }
+        if (filters.isEmpty()) {
+            return false;
+        }
+        BloomFilter union = BloomFilter.union(directory, name(), filters);
+        if (union.falsePositiveProbability() > MAX_MERGED_FALSE_POSITIVE_PROB) {
+            return false;
+        }
+        this.filter = union;
+        this.hasLastStream = false;
+        this.filterComplete = true;
+        return true;
     }
 
-    void newBloomFilter(long numElements) {
-        this.filter = BloomFilter.openOrCreate(directory, name(), numElements, FALSE_POSITIVE_PROB, BloomFilterHasher.Murmur64(Serializers.LONG));
+    long estimatedStreams() {
+        BloomFilter current = filter;
+        return current == null ? 0 : current.estimatedElements();
     }
 
-    private boolean mightHaveEntries(Range range) {
-        return midpoints.inRange(range) && filter.contains(range.stream);
+    //checks only the filter and the stream directory, no block is read
+    boolean mightHaveEntries(Range range) {
+        if (!mightHaveStream(range.stream)) {
+            return false;
+        }
+        int idx = streams.indexOf(range.stream);
+        return idx >= 0 && range.startVersionInclusive <= streams.lastVersionAt(idx) && range.endVersionExclusive > streams.firstVersionAt(idx);
+    }
+
+    private boolean mightHaveStream(long stream) {
+        BloomFilter current = filter;
+        return current != null && current.contains(stream);
     }
 
 
@@ -97,13 +267,12 @@ public class IndexSegment extends BlockSegment<IndexEntry, IndexBlock> implement
         if (!mightHaveEntries(range)) {
             return Iterators.empty();
         }
+        int idx = streams.indexOf(range.stream);
+        long blockPosition = range.startVersionInclusive <= streams.firstVersionAt(idx)
+                ? streams.firstBlockAt(idx)
+                : midpoints.blockPosition(range.stream, range.startVersionInclusive);
 
-        Midpoint lowBound = midpoints.getMidpointFor(range.start());
-        if (lowBound == null) {
-            return Iterators.empty();
-        }
-
-        LogIterator<IndexEntry> logIterator = iterator(lowBound.position, direction);
+        LogIterator<IndexEntry> logIterator = iterator(blockPosition, direction);
         return new RangeIndexEntryIterator(range, logIterator);
     }
 
@@ -114,53 +283,156 @@ public class IndexSegment extends BlockSegment<IndexEntry, IndexBlock> implement
 
     @Override
     public Optional<IndexEntry> get(long stream, int version) {
-        Range range = Range.of(stream, version, version + 1);
-        if (!mightHaveEntries(range)) {
+        if (!mightHaveStream(stream)) {
             return Optional.empty();
         }
-
-        IndexEntry start = range.start();
-        Midpoint lowBound = midpoints.getMidpointFor(start);
-        if (lowBound == null) {//false positive on the bloom filter and entry was within range of this segment
+        int idx = streams.indexOf(stream);
+        if (idx < 0 || version < streams.firstVersionAt(idx) || version > streams.lastVersionAt(idx)) { //false positive on the bloom filter
             return Optional.empty();
         }
 
-        IndexBlock block = getBlock(lowBound.position);
-        List<IndexEntry> entries = block.entries();
-        int idx = Collections.binarySearch(entries, start);
-        if(idx < 0) { //if not exact match, wasn't found
+        long blockPosition = version == streams.firstVersionAt(idx) ? streams.firstBlockAt(idx) : midpoints.blockPosition(stream, version);
+
+        long position = cachedBlock(blockPosition).position(stream, version);
+        if(position < 0) { //if not exact match, wasn't found
             return Optional.empty();
         }
-        IndexEntry found = entries.get(idx);
-        if (found == null || found.stream != stream && found.version != version) { //sanity check
-            throw new IllegalStateException("Inconsistent index");
-        }
-        return Optional.of(found);
+        return Optional.of(IndexEntry.of(stream, version, position));
 
     }
 
     @Override
     public int version(long stream) {
-        Range range = Range.allOf(stream);
-        if (!mightHaveEntries(range)) {
+        if (!mightHaveStream(stream)) {
             return IndexEntry.NO_VERSION;
         }
+        //answered from the directory, no block is read
+        return streams.lastVersion(stream);
+    }
 
-        IndexEntry end = range.end();
-        Midpoint lowBound = midpoints.getMidpointFor(end);
-        if (lowBound == null) {//false positive on the bloom filter and entry was within range of this segment
-            return IndexEntry.NO_VERSION;
+    int firstVersion(long stream) {
+        int idx = streams.indexOf(stream);
+        return idx < 0 ? IndexEntry.NO_VERSION : streams.firstVersionAt(idx);
+    }
+
+    //sealed blocks never change, decompressed once and shared through the cache, never unpacked into entries
+    private PackedBlock cachedBlock(long position) {
+        return blockCache.get(cacheId, position, this::loadBlock);
+    }
+
+    /**
+     * The mapping only saves the storage read, the block is still decompressed and delta decoded into a new buffer,
+     * which is then cached: each block is decoded once and lookups read the cached copy.
+     */
+    private PackedBlock loadBlock(long position) {
+        MappedFile mapped = mapped();
+        if (mapped != null && mapped.acquire()) {
+            try {
+                PackedBlock block = mappedBlock(mapped, position);
+                if (block != null) {
+                    mappedBlockReads.increment();
+                    return block;
+                }
+            } finally {
+                mapped.release();
+            }
         }
+        return storageBlock(position);
+    }
 
-        IndexBlock block = getBlock(lowBound.position);
-        List<IndexEntry> entries = block.entries();
-        int idx = Collections.binarySearch(entries, end);
-        idx = idx >= 0 ? idx : Math.abs(idx) - 2;
-        IndexEntry lastVersion = entries.get(idx);
-        if (lastVersion.stream != stream) { //false positive on the bloom filter
-            return IndexEntry.NO_VERSION;
+    private PackedBlock storageBlock(long position) {
+        return PackedBlock.of(getBlock(position).packed());
+    }
+
+    //must be called between acquire and release, null for blocks written before the format was versioned
+    private PackedBlock mappedBlock(MappedFile mapped, long position) {
+        ByteBuffer record = mappedRecord(mapped, position);
+        if (record == null) {
+            return null;
+        }
+        ByteBuffer packed = blockSerializer.fromBytes(record).packed();
+        //cached blocks outlive the mapping, uncompressed legacy blocks still point to it
+        return PackedBlock.of(packed.isDirect() ? copy(packed) : packed);
+    }
+
+    //blocks read through the mapping instead of the storage
+    long mappedBlockReads() {
+        return mappedBlockReads.sum();
+    }
+
+    //block data without copying, null if it doesn't look like a block in the current format
+    private static ByteBuffer mappedRecord(MappedFile mapped, long position) {
+        if (position < 0 || position + RECORD_HEADER_BYTES + Integer.BYTES > mapped.size()) {
+            return null;
+        }
+        int length = mapped.getInt(position);
+        long dataStart = position + RECORD_HEADER_BYTES;
+        if (length < Integer.BYTES || dataStart + length > mapped.size() || mapped.getInt(dataStart) != -IndexBlockSerializer.DELTA_FORMAT) {
+            return null;
+        }
+        return mapped.slice(dataStart, length);
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        return copy.flip();
+    }
+
+    //mapped lazily, only after the segment is sealed
+    private MappedFile mapped() {
+        if (!mmap || unmapped || !readOnly()) {
+            return null;
+        }
+        MappedFile current = mappedFile;
+        if (current != null) {
+            return current;
+        }
+        synchronized (mapLock) {
+            if (mappedFile == null && !unmapped) {
+                try {
+                    MappedFile mapped = MappedFile.map(new File(directory, name()));
+                    verifyLayout(mapped);
+                    mappedFile = mapped;
+                } catch (IOException e) {
+                    logger.warn("Failed to map segment {}, reading from storage", name(), e);
+                    unmapped = true;
+                }
+            }
+            return mappedFile;
+        }
+    }
+
+    /**
+     * The record header isn't exposed by the log, so the first block of the segment is read both ways and must match.
+     * A different layout fails the read that mapped the segment, the following ones go through the storage.
+     */
+    private void verifyLayout(MappedFile mapped) {
+        if (streams.size() == 0) {
+            return;
+        }
+        long position = streams.firstBlockAt(0);
+        PackedBlock fromMapping = mappedBlock(mapped, position);
+        if (fromMapping == null) { //legacy block or a different layout, both can only be read from the storage
+            mapped.close();
+            unmapped = true;
+            throw new IllegalStateException("Segment " + name() + " can't be read through a mapping, block at " + position + " isn't in the expected record layout");
+        }
+        if (!fromMapping.sameEntries(storageBlock(position))) {
+            mapped.close();
+            unmapped = true;
+            throw new IllegalStateException("Segment " + name() + " can't be read through a mapping, block at " + position + " differs from the storage");
+        }
+    }
+
+    private void unmap() {
+        synchronized (mapLock) {
+            unmapped = true;
+            if (mappedFile != null) {
+                mappedFile.close();
+                mappedFile = null;
+            }
         }
-        return lastVersion.version;
     }
 
     @Override
@@ -0,0 +1,77 @@
+package io.joshworks.eventry.index.disk;
+
+import io.joshworks.eventry.utils.MappedFiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read only mapping of a sealed segment file, reference counted so it can be unmapped while readers are still using it:
+ * every read must happen between acquire and release, and nothing read from the mapping may be kept after release.
+ * The mapping is released when it's closed and the last reader releases it.
+ */
+final class MappedFile {
+
+    private final MappedByteBuffer buffer;
+    private final AtomicInteger refs = new AtomicInteger(1); //the owner reference, dropped on close
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private MappedFile(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    static MappedFile map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File too large to be mapped: " + file.getName());
+            }
+            return new MappedFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    //false if the mapping was already released
+    boolean acquire() {
+        while (true) {
+            int current = refs.get();
+            if (current == 0) {
+                return false;
+            }
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release() {
+        if (refs.decrementAndGet() == 0) {
+            MappedFiles.unmap(buffer);
+        }
+    }
+
+    void close() {
+        if (closed.compareAndSet(false, true)) {
+            release();
+        }
+    }
+
+    long size() {
+        return buffer.capacity();
+    }
+
+    int getInt(long position) {
+        return buffer.getInt((int) position);
+    }
+
+    //no copy, valid only until release
+    ByteBuffer slice(long position, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit((int) position + length).position((int) position);
+        return slice.slice();
+    }
+}
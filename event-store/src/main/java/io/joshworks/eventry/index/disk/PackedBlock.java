@@ -0,0 +1,112 @@
+package io.joshworks.eventry.index.disk;
+
+import io.joshworks.eventry.index.IndexEntry;
+
+import java.nio.ByteBuffer;
+
+//Read only flyweight over the uncompressed IndexBlock layout: (stream(8) | count(4) | (version(4) | position(8))*)*
+//Works with heap, direct or mapped buffers, only absolute reads are used so the buffer can be shared between threads
+final class PackedBlock {
+
+    static final int HEADER_BYTES = Long.BYTES + Integer.BYTES;
+    static final int ENTRY_BYTES = Integer.BYTES + Long.BYTES;
+    private static final int OVERHEAD_BYTES = 64;
+
+    private final ByteBuffer data;
+    //offset of each stream header, in stream order
+    private final int[] headers;
+
+    private PackedBlock(ByteBuffer data, int[] headers) {
+        this.data = data;
+        this.headers = headers;
+    }
+
+    static PackedBlock of(ByteBuffer data) {
+        int base = data.position();
+        int limit = data.limit();
+        int count = 0;
+        for (int offset = base; offset < limit; offset += HEADER_BYTES + data.getInt(offset + Long.BYTES) * ENTRY_BYTES) {
+            count++;
+        }
+        int[] headers = new int[count];
+        int i = 0;
+        for (int offset = base; offset < limit; offset += HEADER_BYTES + data.getInt(offset + Long.BYTES) * ENTRY_BYTES) {
+            headers[i++] = offset;
+        }
+        return new PackedBlock(data, headers);
+    }
+
+    //log position of the given entry, -1 if not present
+    long position(long stream, int version) {
+        int header = header(stream);
+        if (header < 0) {
+            return -1;
+        }
+        int idx = versionIndex(header, version);
+        return idx < 0 ? -1 : data.getLong(entryOffset(header, idx) + Integer.BYTES);
+    }
+
+    int lastVersion(long stream) {
+        int header = header(stream);
+        if (header < 0) {
+            return IndexEntry.NO_VERSION;
+        }
+        int count = data.getInt(header + Long.BYTES);
+        return data.getInt(entryOffset(header, count - 1));
+    }
+
+    //same entries, regardless of where the data is held
+    boolean sameEntries(PackedBlock other) {
+        return data.equals(other.data);
+    }
+
+    int weight() {
+        return OVERHEAD_BYTES + data.capacity() + headers.length * Integer.BYTES;
+    }
+
+    //binary search over the stream headers
+    private int header(long stream) {
+        int low = 0;
+        int high = headers.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = Long.compare(data.getLong(headers[mid]), stream);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return headers[mid];
+            }
+        }
+        return -1;
+    }
+
+    //versions are usually contiguous, so the first version gives the index straight away, binary search otherwise
+    private int versionIndex(int header, int version) {
+        int count = data.getInt(header + Long.BYTES);
+        int first = data.getInt(entryOffset(header, 0));
+        long direct = (long) version - first;
+        if (direct >= 0 && direct < count && data.getInt(entryOffset(header, (int) direct)) == version) {
+            return (int) direct;
+        }
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midVersion = data.getInt(entryOffset(header, mid));
+            if (midVersion < version) {
+                low = mid + 1;
+            } else if (midVersion > version) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static int entryOffset(int header, int idx) {
+        return header + HEADER_BYTES + idx * ENTRY_BYTES;
+    }
+}
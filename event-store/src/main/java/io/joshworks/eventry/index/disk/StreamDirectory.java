@@ -0,0 +1,120 @@
+package io.joshworks.eventry.index.disk;
+
+import io.joshworks.eventry.index.IndexEntry;
+import io.joshworks.eventry.utils.SlotFile;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * Per segment summary of each stream, sorted by stream: answers version lookups from metadata only and
+ * rejects versions outside the segment range without touching midpoints or blocks.
+ * Stored in a sidecar file (.sdr) through a {@link SlotFile}, like the midpoints.
+ * Record format: stream(8) | firstBlock(8) | firstVersion(4) | lastVersion(4) | entries(4)
+ * Single writer (the segment), entries must be added in stream / version order.
+ */
+public class StreamDirectory {
+
+    static final int RECORD_BYTES = Long.BYTES + Long.BYTES + Integer.BYTES * 3;
+    private static final int FIRST_BLOCK_OFFSET = Long.BYTES;
+    private static final int FIRST_VERSION_OFFSET = FIRST_BLOCK_OFFSET + Long.BYTES;
+    private static final int LAST_VERSION_OFFSET = FIRST_VERSION_OFFSET + Integer.BYTES;
+    private static final int ENTRIES_OFFSET = LAST_VERSION_OFFSET + Integer.BYTES;
+    private static final int INITIAL_RECORDS = 256;
+
+    private final boolean existed;
+    private final SlotFile records;
+
+    StreamDirectory(File indexDir, String segmentFileName) {
+        File handler = new File(indexDir, segmentFileName.split("\\.")[0] + ".sdr");
+        this.existed = handler.exists();
+        this.records = new SlotFile(handler, RECORD_BYTES, INITIAL_RECORDS);
+    }
+
+    //false if the segment was written without a directory, and it has to be rebuilt
+    boolean existed() {
+        return existed;
+    }
+
+    void add(long stream, int version, long blockPosition) {
+        int size = records.size();
+        int last = size - 1;
+        if (last >= 0 && records.buffer().getLong(last * RECORD_BYTES) == stream) {
+            int base = last * RECORD_BYTES;
+            if (version <= records.buffer().getInt(base + LAST_VERSION_OFFSET)) {
+                throw new IllegalArgumentException("Versions must be added in order, stream: " + stream + ", version: " + version);
+            }
+            ByteBuffer buffer = records.writable(size);
+            buffer.putInt(base + LAST_VERSION_OFFSET, version);
+            buffer.putInt(base + ENTRIES_OFFSET, buffer.getInt(base + ENTRIES_OFFSET) + 1);
+            records.markDirty(last);
+            return;
+        }
+        if (last >= 0 && records.buffer().getLong(last * RECORD_BYTES) > stream) {
+            throw new IllegalArgumentException("Streams must be added in order, stream: " + stream);
+        }
+        ByteBuffer buffer = records.writable(size + 1);
+        int base = size * RECORD_BYTES;
+        buffer.putLong(base, stream);
+        buffer.putLong(base + FIRST_BLOCK_OFFSET, blockPosition);
+        buffer.putInt(base + FIRST_VERSION_OFFSET, version);
+        buffer.putInt(base + LAST_VERSION_OFFSET, version);
+        buffer.putInt(base + ENTRIES_OFFSET, 1);
+        records.markDirty(size);
+        records.publish(size + 1);
+    }
+
+    //record index of the stream, -1 if not present
+    int indexOf(long stream) {
+        int count = records.size();
+        ByteBuffer buffer = records.buffer();
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midStream = buffer.getLong(mid * RECORD_BYTES);
+            if (midStream < stream) {
+                low = mid + 1;
+            } else if (midStream > stream) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    int lastVersion(long stream) {
+        int idx = indexOf(stream);
+        return idx < 0 ? IndexEntry.NO_VERSION : lastVersionAt(idx);
+    }
+
+    long firstBlockAt(int idx) {
+        return records.buffer().getLong(idx * RECORD_BYTES + FIRST_BLOCK_OFFSET);
+    }
+
+    int firstVersionAt(int idx) {
+        return records.buffer().getInt(idx * RECORD_BYTES + FIRST_VERSION_OFFSET);
+    }
+
+    int lastVersionAt(int idx) {
+        return records.buffer().getInt(idx * RECORD_BYTES + LAST_VERSION_OFFSET);
+    }
+
+    int entriesAt(int idx) {
+        return records.buffer().getInt(idx * RECORD_BYTES + ENTRIES_OFFSET);
+    }
+
+    int size() {
+        return records.size();
+    }
+
+    void write() {
+        records.write();
+    }
+
+    void delete() {
+        records.delete();
+    }
+
+}
@@ -1,71 +1,148 @@
 package io.joshworks.eventry.index.filter;
 
 import io.joshworks.fstore.core.RuntimeIOException;
-import io.joshworks.fstore.core.io.Mode;
-import io.joshworks.fstore.core.io.RafStorage;
-import io.joshworks.fstore.core.io.Storage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
-public class BloomFilter<T> {
-    private final File handler;
+/**
+ * Blocked bloom filter of stream hashes.
+ * Each key maps to a single 512 bit block (one cache line) and all of its k bits are set within that block,
+ * so a lookup touches one cache line. Keys are primitive longs, nothing is allocated on add or contains.
+ * Loaded filters are memory mapped from the .ftr file, changes to a loaded filter go straight to the mapping.
+ * Single writer: {@link #contains(long)} doesn't lock, a concurrent reader might miss a bit that is being set, callers
+ * must publish the added keys themselves (e.g. through the memtable) before relying on the filter.
+ * Writes copy the changed blocks while holding the monitor and go to disk without it.
+ */
+public class BloomFilter {
 
-    BitSet hashes;
-    private BloomFilterHasher<T> hash;
-    private final int m; // The number of bits in the filter
-    private int k; // Number of hash functions
+    private static final Logger logger = LoggerFactory.getLogger(BloomFilter.class);
 
-    private boolean dirty;
+    private static final int LONGS_PER_BLOCK = 8; //64 bytes
+    private static final int BITS_PER_BLOCK = LONGS_PER_BLOCK * Long.SIZE;
+    private static final int BLOCK_MASK = BITS_PER_BLOCK - 1;
+    private static final int MAX_HASHES = 16;
 
-    private static final Logger logger = LoggerFactory.getLogger(BloomFilter.class);
+    //Format
+    //Format marker -> 4bytes (negative, older filters started with the data length)
+    //Number of blocks -> 4bytes
+    //Number of hash (k) -> 4bytes
+    //Padding -> 4bytes
+    //Data -> long[] (little endian)
+    private static final int BLOCKED_FORMAT = -1;
+    private static final int HEADER_SIZE = Integer.BYTES * 4;
+
+    private final File handler;
+    final LongBuffer words;
+    private final MappedByteBuffer mapped;
+    private final int blocks;
+    private final int k;
+
+    //blocks changed since the last write, only those are rewritten once the file exists, guarded by this
+    private final BitSet dirtyBlocks = new BitSet();
+    //serializes writes, so an older copy of a block never overwrites a newer one
+    private final Object writeLock = new Object();
+    private boolean persisted; //guarded by writeLock
 
     /**
      * @param handler The target file
      * @param n       The expected number of elements in the filter
      * @param p       The acceptable false positive rate
-     * @param hash    The hash implementation
      */
-    private BloomFilter(File handler, long n, double p, BloomFilterHasher<T> hash) {
+    private BloomFilter(File handler, long n, double p) {
         Objects.requireNonNull(handler, "Handler");
-        Objects.requireNonNull(hash, "Hash");
+        if (n <= 0) {
+            throw new IllegalArgumentException("Expected number of elements must be greater than zero");
+        }
+        long bits = getNumberOfBits(p, n);
+        this.handler = handler;
+        this.blocks = blocksFor(bits);
+        this.k = getNumberOfHashes(p);
+        this.words = LongBuffer.allocate(blocks * LONGS_PER_BLOCK);
+        this.mapped = null;
+    }
 
+    private BloomFilter(File handler, int blocks, int k) {
         this.handler = handler;
-        this.m = getNumberOfBits(p, n);
-        this.k = getOptimalNumberOfHashesByBits(n, this.m);
-        this.hash = hash;
-        this.hashes = new BitSet(this.m);
+        this.blocks = blocks;
+        this.k = k;
+        this.words = LongBuffer.allocate(blocks * LONGS_PER_BLOCK);
+        this.mapped = null;
     }
 
     /**
      * Used to load from file only
-     *
-     * @param handler The file handler of this filter
-     * @param hashes  The table containing the data
-     * @param hash    The hash implementation (must remain the same)
-     * @param m       The number of bits in the 'hashes'
-     * @param k       The number of hash functions
      */
-    private BloomFilter(File handler, BitSet hashes, BloomFilterHasher<T> hash, int m, int k) {
+    private BloomFilter(File handler, MappedByteBuffer mapped, int blocks, int k) {
         this.handler = handler;
-        this.hashes = hashes;
-        this.hash = hash;
-        this.m = m;
+        this.mapped = mapped;
+        this.words = mapped.position(HEADER_SIZE).slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        this.blocks = blocks;
         this.k = k;
+        this.persisted = true;
     }
 
-    public static <T> BloomFilter<T> openOrCreate(File indexDir, String segmentFileName, long n, double p, BloomFilterHasher<T> hash) {
+    public static BloomFilter openOrCreate(File indexDir, String segmentFileName, long n, double p) {
         File handler = getFile(indexDir, segmentFileName);
+        if (exists(indexDir, segmentFileName)) {
+            return load(handler);
+        }
         if (handler.exists()) {
-            return load(handler, hash);
+            logger.warn("Discarding filter {} with unsupported format", handler.getName());
+        }
+        return new BloomFilter(handler, n, p);
+    }
+
+    /**
+     * New filter containing the elements of all the given filters, built by OR-ing their bits without hashing any element.
+     * All filters must be compatible, the result has the size of the smallest one, so its false positive probability grows with the union
+     */
+    public static BloomFilter union(File indexDir, String segmentFileName, List<BloomFilter> filters) {
+        if (filters.isEmpty()) {
+            throw new IllegalArgumentException("At least one filter is required");
+        }
+        BloomFilter smallest = filters.get(0);
+        for (BloomFilter filter : filters) {
+            if (filter.blocks < smallest.blocks) {
+                smallest = filter;
+            }
+        }
+        BloomFilter union = new BloomFilter(getFile(indexDir, segmentFileName), smallest.blocks, smallest.k);
+        for (BloomFilter filter : filters) {
+            union.merge(filter);
+        }
+        return union;
+    }
+
+    /**
+     * @return True if there's a filter file in the current format, otherwise the filter must be rebuilt by the caller
+     */
+    public static boolean exists(File indexDir, String segmentFileName) {
+        File handler = getFile(indexDir, segmentFileName);
+        if (!handler.exists() || handler.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(handler.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            return header.getInt(0) == BLOCKED_FORMAT;
+        } catch (IOException e) {
+            throw RuntimeIOException.of("Failed to read filter", e);
         }
-        return new BloomFilter<>(handler, n, p, hash);
     }
 
     private static File getFile(File indexDir, String segmentName) {
@@ -74,7 +151,7 @@ public class BloomFilter<T> {
 
     public void delete() {
         try {
-            Files.delete(handler.toPath());
+            Files.deleteIfExists(handler.toPath());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -83,10 +160,17 @@ public class BloomFilter<T> {
     /**
      * Add an element to the container
      */
-    public void add(T key) {
-        for (int h : hash.hash(hashes.size(), k, key))
-            hashes.set(h);
-        dirty = true;
+    public synchronized void add(long key) {
+        long hash = mix(key);
+        int base = block(hash);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < k; i++) {
+            int bit = (h1 + i * h2) & BLOCK_MASK;
+            int idx = base + (bit >>> 6);
+            words.put(idx, words.get(idx) | (1L << bit));
+        }
+        dirtyBlocks.set(base / LONGS_PER_BLOCK);
     }
 
     /**
@@ -94,18 +178,85 @@ public class BloomFilter<T> {
      * Returns false with a probability ≈ 1-e^(-ln(2)² * m/n)
      * if the element is not in the container.
      **/
-    public boolean contains(T key) {
-        for (int h : hash.hash(hashes.size(), k, key))
-            if (!hashes.get(h))
+    public boolean contains(long key) {
+        long hash = mix(key);
+        int base = block(hash);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < k; i++) {
+            int bit = (h1 + i * h2) & BLOCK_MASK;
+            if ((words.get(base + (bit >>> 6)) & (1L << bit)) == 0) {
                 return false;
+            }
+        }
         return true;
     }
 
+    //stream hashes are not uniform in every bit (e.g. sequential ids in tests), so they're mixed first (murmur3 fmix64)
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    //first long of the block, multiply-shift over the upper 32 bits avoids a modulo
+    //with a power of two number of blocks that's the top bits, so halving the blocks maps block b to b / 2
+    private int block(long hash) {
+        int block = (int) (((hash >>> 32) * blocks) >>> 32);
+        return block * LONGS_PER_BLOCK;
+    }
+
+    /**
+     * Estimated number of distinct elements added, from the number of set bits: n = -(m / k) ln(1 - X / m)
+     */
+    public long estimatedElements() {
+        long set = setBits();
+        long m = (long) blocks * BITS_PER_BLOCK;
+        if (set >= m) { //saturated
+            return m;
+        }
+        return (long) Math.ceil(-((double) m / k) * Math.log(1 - (double) set / m));
+    }
+
+    /**
+     * Current false positive probability, each of the k bits of a missing element is set with probability X / m.
+     * Ignores the extra collisions of the blocked layout, so it's slightly optimistic
+     */
+    public double falsePositiveProbability() {
+        return Math.pow((double) setBits() / ((long) blocks * BITS_PER_BLOCK), k);
+    }
+
+    private long setBits() {
+        long set = 0;
+        for (int i = 0; i < words.capacity(); i++) {
+            set += Long.bitCount(words.get(i));
+        }
+        return set;
+    }
+
+    //same hash functions and either the same number of blocks or both a power of two, the larger one is folded
+    public boolean compatibleWith(BloomFilter other) {
+        if (other.k != this.k) {
+            return false;
+        }
+        return other.blocks == this.blocks || (isPowerOfTwo(other.blocks) && isPowerOfTwo(this.blocks));
+    }
+
+    private static boolean isPowerOfTwo(int value) {
+        return (value & (value - 1)) == 0;
+    }
+
     /**
      * Removes all of the elements from this filter.
      **/
-    public void clear() {
-        hashes.clear();
+    public synchronized void clear() {
+        for (int i = 0; i < words.capacity(); i++) {
+            words.put(i, 0);
+        }
+        dirtyBlocks.set(0, blocks);
     }
 
     /**
@@ -113,33 +264,53 @@ public class BloomFilter<T> {
      **/
     @Override
     public int hashCode() {
-        return hashes.hashCode() ^ k;
+        return words.hashCode() ^ k;
     }
 
     /**
      * Merge another bloom filter into the current one.
      * After this operation, the current bloom filter contains all elements in
-     * other.
+     * other. A larger filter is folded, each block of this filter gets the OR of the blocks of other that map to it.
      **/
-    public void merge(BloomFilter other) {
-        if (other.k != this.k || other.hashes.size() != this.hashes.size()) {
+    public synchronized void merge(BloomFilter other) {
+        if (!compatibleWith(other) || other.blocks < blocks) {
             throw new IllegalArgumentException("Incompatible bloom filters");
         }
-        this.hashes.or(other.hashes);
-        dirty = true;
+        int fold = other.blocks / blocks;
+        for (int block = 0; block < blocks; block++) {
+            for (int j = 0; j < fold; j++) {
+                int from = (block * fold + j) * LONGS_PER_BLOCK;
+                int to = block * LONGS_PER_BLOCK;
+                for (int i = 0; i < LONGS_PER_BLOCK; i++) {
+                    words.put(to + i, words.get(to + i) | other.words.get(from + i));
+                }
+            }
+        }
+        dirtyBlocks.set(0, blocks);
     }
 
     /**
-     * k = (m / n) ln 2 from wikipedia.
+     * k = -log2(p), the optimal number of hashes when m is sized for p.
+     * Depends only on p, so filters of any size with the same probability can be merged
      *
-     * @param n the number of elements expected.
-     * @param m the number of bytes allowed.
-     * @return the best number of hashes.
+     * @param p the probability of false positives.
+     * @return the number of hashes.
      */
-    private int getOptimalNumberOfHashesByBits(long n, long m) {
-        return (int) Math.ceil(Math.log(2) * ((double) m / n));
+    private static int getNumberOfHashes(double p) {
+        int k = (int) Math.ceil(-Math.log(p) / Math.log(2));
+        return Math.max(1, Math.min(MAX_HASHES, k));
     }
 
+    //rounded up to a power of two, filters can then be folded into smaller ones
+    private static int blocksFor(long bits) {
+        long blocks = Math.max(1, (bits + BITS_PER_BLOCK - 1) / BITS_PER_BLOCK);
+        long rounded = Long.highestOneBit(blocks);
+        rounded = rounded == blocks ? blocks : rounded << 1;
+        if (rounded > Integer.MAX_VALUE / LONGS_PER_BLOCK) {
+            throw new IllegalArgumentException("Filter too large: " + bits + " bits");
+        }
+        return (int) rounded;
+    }
 
     /**
      * Calculate the number of bits needed to produce the provided probability of false
@@ -149,72 +320,108 @@ public class BloomFilter<T> {
      * @param n The estimated number of elements.
      * @return The number of bits.
      */
-    private static int getNumberOfBits(double p, long n) {
-        return (int) (Math.abs(n * Math.log(p)) / (Math.pow(Math.log(2), 2)));
-    }
-
-    private static int HEADER_SIZE = Integer.BYTES * 3;
-    public synchronized void write() {
-        if (!dirty) {
-            return;
-        }
-
-        long[] items = hashes.toLongArray();
-        int dataLength = items.length * Long.BYTES;
-        int totalSize = dataLength + HEADER_SIZE;
-        try (Storage storage = new RafStorage(handler, totalSize, Mode.READ_WRITE)) {
-
-            //Format
-            //Length -> 4bytes
-            //Number of bits (m) -> 4bytes
-            //Number of hash (k) -> 4bytes
-            //Data -> long[]
-            ByteBuffer bb = ByteBuffer.allocate(totalSize);
-            bb.putInt(dataLength);
-            bb.putInt(this.m);
-            bb.putInt(this.k);
-            for (long item : items) {
-                bb.putLong(item);
+    private static long getNumberOfBits(double p, long n) {
+        return (long) (Math.abs(n * Math.log(p)) / (Math.pow(Math.log(2), 2)));
+    }
+
+    public void write() {
+        synchronized (writeLock) {
+            BitSet dirty;
+            List<Run> runs;
+            synchronized (this) {
+                if (dirtyBlocks.isEmpty()) {
+                    return;
+                }
+                dirty = (BitSet) dirtyBlocks.clone();
+                dirtyBlocks.clear();
+                //the mapping is written by the OS, only forced
+                runs = mapped != null ? null : (persisted ? dirtyRuns(dirty) : Collections.singletonList(wholeFilter()));
+            }
+            try {
+                if (mapped != null) {
+                    mapped.force();
+                } else {
+                    writeRuns(runs, !persisted);
+                }
+                persisted = true;
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    dirtyBlocks.or(dirty);
+                }
+                throw e;
             }
+        }
+    }
 
-            bb.flip();
-            storage.write(bb);
-            dirty = false;
+    private Run wholeFilter() {
+        int dataLength = words.capacity() * Long.BYTES;
+        ByteBuffer bb = ByteBuffer.allocate(HEADER_SIZE + dataLength).order(ByteOrder.LITTLE_ENDIAN);
+        bb.putInt(BLOCKED_FORMAT);
+        bb.putInt(blocks);
+        bb.putInt(k);
+        bb.putInt(0);
+        bb.asLongBuffer().put(words.duplicate().clear());
+        bb.clear();
+        return new Run(0, bb);
+    }
+
+    //large filters (e.g. the stream filter) only get a few blocks changed between writes
+    private List<Run> dirtyRuns(BitSet dirty) {
+        List<Run> runs = new ArrayList<>();
+        int from = dirty.nextSetBit(0);
+        while (from >= 0) {
+            int to = dirty.nextClearBit(from);
+            LongBuffer run = words.duplicate().position(from * LONGS_PER_BLOCK).limit(to * LONGS_PER_BLOCK);
+            ByteBuffer bb = ByteBuffer.allocate(run.remaining() * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            bb.asLongBuffer().put(run);
+            runs.add(new Run(HEADER_SIZE + (long) from * LONGS_PER_BLOCK * Long.BYTES, bb));
+            from = dirty.nextSetBit(to);
+        }
+        return runs;
+    }
 
+    private void writeRuns(List<Run> runs, boolean create) {
+        StandardOpenOption[] options = create
+                ? new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING}
+                : new StandardOpenOption[]{StandardOpenOption.WRITE};
+        try (FileChannel channel = FileChannel.open(handler.toPath(), options)) {
+            for (Run run : runs) {
+                writeFully(channel, run.data, run.position);
+            }
+            channel.force(false);
         } catch (IOException e) {
             throw RuntimeIOException.of("Failed to write filter", e);
         }
     }
 
-    private static <T> BloomFilter<T> load(File handler, BloomFilterHasher<T> hash) {
-        try (Storage storage = new RafStorage(handler, handler.length(), Mode.READ_WRITE)) {
-            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
-            storage.read(0, header);
-            header.flip();
-
-            int length = header.getInt();
-            int m = header.getInt();
-            int k = header.getInt();
-
-            ByteBuffer data = ByteBuffer.allocate(length);
-            storage.read(HEADER_SIZE, data);
-
-            data.flip();
-
+    private static void writeFully(FileChannel channel, ByteBuffer bb, long position) throws IOException {
+        while (bb.hasRemaining()) {
+            position += channel.write(bb, position);
+        }
+    }
 
-            long[] longs = new long[data.remaining() / Long.BYTES];
-            int i = 0;
-            while(data.hasRemaining()) {
-                longs[i++]= data.getLong();
+    private static BloomFilter load(File handler) {
+        try (FileChannel channel = FileChannel.open(handler.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            int blocks = mapped.getInt(Integer.BYTES);
+            int k = mapped.getInt(Integer.BYTES * 2);
+            if (channel.size() != HEADER_SIZE + (long) blocks * LONGS_PER_BLOCK * Long.BYTES) {
+                throw new IllegalStateException("Corrupted filter " + handler.getName());
             }
+            return new BloomFilter(handler, mapped, blocks, k);
+        } catch (IOException e) {
+            throw RuntimeIOException.of("Failed to load filter", e);
+        }
+    }
 
-            BitSet bitSet = new BitSet(m);
-            bitSet.or(BitSet.valueOf(longs));
-
-            return new BloomFilter<>(handler, bitSet, hash, m, k);
+    private static final class Run {
+        private final long position;
+        private final ByteBuffer data;
 
-        } catch (IOException e) {
-            throw RuntimeIOException.of("Failed to write filter", e);
+        private Run(long position, ByteBuffer data) {
+            this.position = position;
+            this.data = data;
         }
     }
 
@@ -222,7 +429,7 @@ public class BloomFilter<T> {
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
-        BloomFilter<?> that = (BloomFilter<?>) o;
-        return Objects.equals(hashes, that.hashes);
+        BloomFilter that = (BloomFilter) o;
+        return k == that.k && Objects.equals(words, that.words);
     }
-}
\ No newline at end of file
+}
@@ -2,167 +2,165 @@ package io.joshworks.eventry.index.midpoint;
 
 import io.joshworks.eventry.index.IndexEntry;
 import io.joshworks.eventry.index.Range;
-import io.joshworks.fstore.core.Serializer;
-import io.joshworks.fstore.core.io.Mode;
-import io.joshworks.fstore.core.io.RafStorage;
-import io.joshworks.fstore.core.io.Storage;
+import io.joshworks.eventry.utils.SlotFile;
 
 import java.io.File;
-import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.file.Files;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.Objects;
 
+/**
+ * Sorted, fixed width array of block boundaries kept off heap: the file is memory mapped when loaded and appended to
+ * incrementally through a {@link SlotFile}, only the slots changed since the last write are written back.
+ * Slot format (same as {@link MidpointSerializer}): stream(8) | version(4) | entryPosition(8) | blockPosition(8)
+ * Single writer (the segment), lookups are binary searches over the slots, no Midpoint or IndexEntry is created.
+ */
 public class Midpoints {
 
-    private static final Serializer<Midpoint> midpointSerializer = new MidpointSerializer();
-    private final List<Midpoint> midpoints;
-    private final File handler;
-    boolean dirty;
+    private static final int VERSION_OFFSET = Long.BYTES;
+    private static final int ENTRY_POSITION_OFFSET = VERSION_OFFSET + Integer.BYTES;
+    private static final int BLOCK_POSITION_OFFSET = ENTRY_POSITION_OFFSET + Long.BYTES;
+    private static final int INITIAL_SLOTS = 256;
+
+    private final SlotFile slots;
 
     public Midpoints(File indexDir, String segmentFileName) {
-        this.handler = getFile(indexDir, segmentFileName);
-        this.midpoints = load(handler);
+        this.slots = new SlotFile(getFile(indexDir, segmentFileName), Midpoint.BYTES, INITIAL_SLOTS);
     }
 
     public void add(Midpoint start, Midpoint end) {
-        if (midpoints.isEmpty()) {
-            midpoints.add(start);
-            midpoints.add(end);
-        } else {
-            midpoints.set(midpoints.size() - 1, start);
-            midpoints.add(end);
+        int size = slots.size();
+        if (size == 0) {
+            add(start);
+            add(end);
+            return;
         }
-        dirty = true;
-
+        //the previous block end is replaced by this block start
+        put(slots.writable(size), size - 1, start);
+        add(end);
     }
 
     public void add(Midpoint midpoint) {
         Objects.requireNonNull(midpoint, "Midpoint cannot be null");
         Objects.requireNonNull(midpoint.key, "Midpoint entry cannot be null");
-        this.midpoints.add(midpoint);
-        dirty = true;
+        int size = slots.size();
+        put(slots.writable(size + 1), size, midpoint);
+        slots.publish(size + 1);
     }
 
     public void write() {
-        if (!dirty) {
-            return;
-        }
+        slots.write();
+    }
 
-        long size = Math.max(Midpoint.BYTES * midpoints.size(), handler.length());
+    boolean dirty() {
+        return slots.dirty();
+    }
 
-        try (Storage storage = new RafStorage(handler, size, Mode.READ_WRITE)) {
-            for (Midpoint midpoint : midpoints) {
-                ByteBuffer data = midpointSerializer.toBytes(midpoint);
-                storage.write(data);
-            }
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to write midpoints", e);
-        }
-        dirty = false;
+    private void put(ByteBuffer buffer, int idx, Midpoint midpoint) {
+        int base = idx * Midpoint.BYTES;
+        buffer.putLong(base, midpoint.key.stream);
+        buffer.putInt(base + VERSION_OFFSET, midpoint.key.version);
+        buffer.putLong(base + ENTRY_POSITION_OFFSET, midpoint.key.position);
+        buffer.putLong(base + BLOCK_POSITION_OFFSET, midpoint.position);
+        slots.markDirty(idx);
     }
 
+    private static File getFile(File indexDir, String segmentName) {
+        return new File(indexDir, segmentName.split("\\.")[0] + ".mdp");
+    }
 
-    private List<Midpoint> load(File handler) {
-        if (!handler.exists()) {
-            return new ArrayList<>();
+    //index of the last midpoint less than or equals to the key, or the first one if none
+    public int getMidpointIdx(long stream, int version) {
+        int count = slots.size();
+        ByteBuffer buffer = slots.buffer();
+        if (count == 0) {
+            throw new IllegalStateException("No midpoints available");
         }
-        try (Storage storage = new RafStorage(handler, handler.length(), Mode.READ_WRITE)) {
-            long pos = 0;
-            ByteBuffer data = ByteBuffer.allocate(Midpoint.BYTES);
-
-            List<Midpoint> loaded = new ArrayList<>();
-            while (storage.read(pos, data) > 0) {
-                data.flip();
-                Midpoint midpoint = midpointSerializer.fromBytes(data);
-                loaded.add(midpoint);
-                pos += Midpoint.BYTES;
-                data.clear();
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(buffer, mid, stream, version);
+            if (cmp <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
             }
-            return loaded;
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to load midpoints", e);
         }
+        return Math.max(0, high);
     }
 
-    private static File getFile(File indexDir, String segmentName) {
-        return new File(indexDir, segmentName.split("\\.")[0] + ".mdp");
+    public int getMidpointIdx(IndexEntry entry) {
+        return getMidpointIdx(entry.stream, entry.version);
     }
 
-    public int getMidpointIdx(IndexEntry entry) {
-        int idx = Collections.binarySearch(midpoints, entry);
-        if (idx < 0) {
-            idx = Math.abs(idx) - 2; // -1 for the actual position, -1 for the offset where to queuedTime scanning
-            idx = idx < 0 ? 0 : idx;
-        }
-        if (idx >= midpoints.size()) {
-            throw new IllegalStateException("Got index " + idx + " midpoints position: " + midpoints.size());
+    //position of the block that might contain the key, -1 if there's no midpoint
+    public long blockPosition(long stream, int version) {
+        if (slots.size() == 0) {
+            return -1;
         }
-        return idx;
+        int idx = getMidpointIdx(stream, version);
+        return slots.buffer().getLong(idx * Midpoint.BYTES + BLOCK_POSITION_OFFSET);
     }
 
     public Midpoint getMidpointFor(IndexEntry entry) {
-        int midpointIdx = getMidpointIdx(entry);
-        if (midpointIdx >= midpoints.size() || midpointIdx < 0) {
+        if (slots.size() == 0) {
             return null;
         }
-        return midpoints.get(midpointIdx);
+        return get(getMidpointIdx(entry));
     }
 
-
     public void delete() {
-        try {
-            Files.delete(handler.toPath());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        slots.delete();
     }
 
     public boolean inRange(Range range) {
-        if (midpoints.isEmpty()) {
+        int count = slots.size();
+        if (count == 0) {
             return false;
         }
-        return !(range.start().compareTo(last()) > 0 || range.end().compareTo(first()) < 0);
+        ByteBuffer buffer = slots.buffer();
+        boolean afterLast = compare(buffer, count - 1, range.stream, range.startVersionInclusive) < 0;
+        boolean beforeFirst = compare(buffer, 0, range.stream, range.endVersionExclusive) > 0;
+        return !afterLast && !beforeFirst;
     }
 
     public int size() {
-        return midpoints.size();
+        return slots.size();
     }
 
     public IndexEntry first() {
-        if (midpoints.isEmpty()) {
+        if (slots.size() == 0) {
             return null;
         }
-        return firstMidpoint().key;
+        return get(0).key;
     }
 
     public boolean isEmpty() {
-        return midpoints.isEmpty();
+        return slots.size() == 0;
     }
 
     public IndexEntry last() {
-        if (midpoints.isEmpty()) {
+        int count = slots.size();
+        if (count == 0) {
             return null;
         }
-        return lastMidpoint().key;
+        return get(count - 1).key;
     }
 
-    private Midpoint firstMidpoint() {
-        if (midpoints.isEmpty()) {
-            return null;
-        }
-        return midpoints.get(0);
+    private Midpoint get(int idx) {
+        ByteBuffer buffer = slots.buffer();
+        int base = idx * Midpoint.BYTES;
+        IndexEntry key = IndexEntry.of(buffer.getLong(base), buffer.getInt(base + VERSION_OFFSET), buffer.getLong(base + ENTRY_POSITION_OFFSET));
+        return new Midpoint(key, buffer.getLong(base + BLOCK_POSITION_OFFSET));
     }
 
-    private Midpoint lastMidpoint() {
-        if (midpoints.isEmpty()) {
-            return null;
+    private static int compare(ByteBuffer buffer, int idx, long stream, int version) {
+        int base = idx * Midpoint.BYTES;
+        int cmp = Long.compare(buffer.getLong(base), stream);
+        if (cmp != 0) {
+            return cmp;
         }
-        return midpoints.get(midpoints.size() - 1);
+        return Integer.compare(buffer.getInt(base + VERSION_OFFSET), version);
     }
 
-
 }
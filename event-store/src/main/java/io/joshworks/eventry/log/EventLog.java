@@ -8,6 +8,7 @@ import io.joshworks.fstore.log.appender.Config;
 import io.joshworks.fstore.log.appender.appenders.SimpleLogAppender;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.stream.Stream;
 
 public class EventLog {
@@ -22,6 +23,15 @@ public class EventLog {
         return appender.append(event);
     }
 
+    //records are written back to back into the current segment, positions are returned in the same order
+    public long[] append(List<EventRecord> events) {
+        long[] positions = new long[events.size()];
+        for (int i = 0; i < events.size(); i++) {
+            positions[i] = appender.append(events.get(i));
+        }
+        return positions;
+    }
+
     public EventRecord get(long position) {
         EventRecord event = appender.get(position);
         if (event == null) {
@@ -30,6 +40,10 @@ public class EventLog {
         return event;
     }
 
+    public void flush() {
+        appender.flush();
+    }
+
     public long size() {
         return appender.entries();
     }
@@ -46,6 +60,10 @@ public class EventLog {
         return new EventLogIterator(appender.iterator(direction));
     }
 
+    public LogIterator<EventRecord> iterator(Direction direction, long position) {
+        return new EventLogIterator(appender.iterator(direction, position));
+    }
+
     public Stream<EventRecord> stream(Direction direction) {
         return Iterators.stream(iterator(direction));
     }
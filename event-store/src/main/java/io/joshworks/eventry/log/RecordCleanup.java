@@ -1,73 +1,115 @@
 package io.joshworks.eventry.log;
 
+import io.joshworks.eventry.index.CompactionThrottle;
+import io.joshworks.eventry.index.Tombstones;
 import io.joshworks.eventry.stream.StreamMetadata;
 import io.joshworks.eventry.stream.Streams;
+import io.joshworks.fstore.core.RuntimeIOException;
 import io.joshworks.fstore.log.Direction;
 import io.joshworks.fstore.log.LogIterator;
 import io.joshworks.fstore.log.appender.compaction.combiner.SegmentCombiner;
 import io.joshworks.fstore.log.segment.Log;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
-
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scavenges log segments: records of deleted streams, out of the max count window or older than max age are not copied
+ * to the output segment. Deleted and truncated streams are taken from a tombstone snapshot when the merge starts, the same
+ * rules the index compaction uses, system events are always kept.
+ * Not used by the event log, which has compaction disabled: kept records move to a new position and index entries
+ * still point to the old one.
+ */
 public class RecordCleanup implements SegmentCombiner<EventRecord> {
 
+    private static final Logger logger = LoggerFactory.getLogger(RecordCleanup.class);
+    private static final long THROTTLE_CHUNK_BYTES = 64 * 1024;
+
     private final Streams streams;
+    private final CompactionThrottle throttle;
+    private final LongAdder recordsKept = new LongAdder();
+    private final LongAdder recordsDropped = new LongAdder();
 
     public RecordCleanup(Streams streams) {
+        this(streams, CompactionThrottle.unlimited());
+    }
+
+    /**
+     * @param throttle Paces the writes to the output segment
+     */
+    public RecordCleanup(Streams streams, CompactionThrottle throttle) {
         this.streams = streams;
+        this.throttle = throttle;
     }
 
     @Override
     public void merge(List<? extends Log<EventRecord>> segments, Log<EventRecord> output) {
-        if (segments.size() != 1) {
-            throw new IllegalArgumentException("Scavenge can only be executed on a single segment at once");
+        Tombstones tombstones = streams.tombstones();
+        long now = System.currentTimeMillis();
+        throttle.beginMerge();
+        try {
+            for (Log<EventRecord> segment : segments) {
+                scavenge(segment, output, tombstones, now);
+            }
+        } finally {
+            throttle.endMerge();
         }
+    }
 
-        Log<EventRecord> log = segments.get(0);
-
-        try (LogIterator<EventRecord> iterator = log.iterator(Direction.FORWARD)) {
-
+    private void scavenge(Log<EventRecord> segment, Log<EventRecord> output, Tombstones tombstones, long now) {
+        long kept = 0;
+        long dropped = 0;
+        long pendingBytes = 0;
+        try (LogIterator<EventRecord> iterator = segment.iterator(Direction.FORWARD)) {
             while (iterator.hasNext()) {
-                long oldPosition = iterator.position();
-
                 EventRecord record = iterator.next();
-                Optional<StreamMetadata> metadataOpt = streams.get(record.stream);
-                if (!metadataOpt.isPresent()) {
-                    //replace with a log warn
-                    throw new RuntimeException("No metadataOpt available for stream: " + record.stream);
-                }
-                StreamMetadata metadata = metadataOpt.get();
-
-                boolean streamDeleted = metadata.streamDeleted();
-                if (streamDeleted) {
-                    //skip record
+                if (isDead(record, tombstones, now)) {
+                    dropped++;
                     continue;
                 }
-
-                boolean expired = metadata.maxAge > 0 && System.currentTimeMillis() - record.timestamp > metadata.maxAge;
-                if (expired) {
-                    //skip record
-                    continue;
-                }
-                int currentStreamVersion = streams.version(metadata.hash);
-                boolean obsolete = metadata.maxCount > 0 && currentStreamVersion - record.version > metadata.maxCount;
-                if (obsolete) {
-                    //skip record
-                    continue;
+                //TODO the index must be redirected to the new position before this can run on the event log
+                long before = output.position();
+                output.append(record);
+                kept++;
+                pendingBytes += output.position() - before;
+                if (pendingBytes >= THROTTLE_CHUNK_BYTES) {
+                    throttle.acquire(pendingBytes);
+                    pendingBytes = 0;
                 }
-
-                long newPosition = output.append(record);
-                System.out.println("Mapping from position " + oldPosition + " to " + newPosition);
-                //TODO add position mapping to footer
-                //TODO Create a new Segment Type to handle mapping
             }
+        } catch (IOException e) {
+            throw RuntimeIOException.of(e);
+        }
+        if (pendingBytes > 0) {
+            throttle.acquire(pendingBytes);
+        }
+        recordsKept.add(kept);
+        recordsDropped.add(dropped);
+        logger.info("Scavenged segment {}: {} records kept, {} dropped", segment.name(), kept, dropped);
+    }
 
-
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    private boolean isDead(EventRecord record, Tombstones tombstones, long now) {
+        if (record.isSystemEvent()) {
+            return false;
+        }
+        long streamHash = streams.hashOf(record.stream);
+        if (record.version < tombstones.firstLiveVersion(streamHash)) {
+            return true;
         }
+        //deleted streams have no metadata, but are covered by the tombstones
+        Optional<StreamMetadata> metadata = streams.get(streamHash);
+        return metadata.isPresent() && metadata.get().maxAge > 0 && now - record.timestamp > metadata.get().maxAge;
+    }
 
+    public long recordsKept() {
+        return recordsKept.sum();
+    }
 
+    public long recordsDropped() {
+        return recordsDropped.sum();
     }
 }
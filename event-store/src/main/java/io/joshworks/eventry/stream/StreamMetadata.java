@@ -23,6 +23,7 @@ public class StreamMetadata {
         this.created = created;
         this.maxAge = -1;
         this.maxCount = -1;
+        this.state = STATUS_ACTIVE;
         this.permissions = new HashMap<>();
         this.metadata = new HashMap<>();
     }
@@ -33,6 +34,7 @@ public class StreamMetadata {
         this.created = created;
         this.maxAge = maxAge;
         this.maxCount = maxCount;
+        this.state = STATUS_ACTIVE;
         this.permissions = permissions;
         this.metadata = metadata;
     }
@@ -45,7 +47,9 @@ public class StreamMetadata {
         return permissions.getOrDefault(id, PERMISSION_NONE).equals(PERMISSION_WRITE);
     }
 
-    public boolean
+    public boolean streamDeleted() {
+        return state == STATUS_DELETED;
+    }
 
     public String metadata(String key) {
         return metadata.get(key);
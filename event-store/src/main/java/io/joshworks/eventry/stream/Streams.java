@@ -1,14 +1,15 @@
 package io.joshworks.eventry.stream;
 
-import io.joshworks.eventry.LRUCache;
 import io.joshworks.eventry.hash.Murmur3Hash;
 import io.joshworks.eventry.hash.XXHash;
 import io.joshworks.eventry.index.StreamHasher;
 import io.joshworks.eventry.index.IndexEntry;
+import io.joshworks.eventry.index.Tombstones;
 import io.joshworks.eventry.utils.StringUtils;
 
 import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -16,21 +17,25 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Function;
+import java.util.function.LongToIntFunction;
 import java.util.stream.Collectors;
 
 public class Streams implements Closeable {
 
     public static final String STREAM_WILDCARD = "*";
-    //TODO LRU cache ? there's no way of getting item by stream name, need to use an indexed lsm-tree
-    //LRU map that reads the last version from the index
-    private final LRUCache<Long, AtomicInteger> versions;
+    //TODO there's no way of getting item by stream name, need to use an indexed lsm-tree
+    //bounded version table that reads the last version from the index on miss
+    private final VersionTable versions;
+    //reads the index directly, for threads other than the writer that must not fill the version table (version, tombstones)
+    private final LongToIntFunction versionFetcher;
     private final Map<Long, StreamMetadata> streamsMap = new ConcurrentHashMap<>();
+    //first version still alive of each deleted stream
+    private final Map<Long, Integer> deleted = new ConcurrentHashMap<>();
     private final StreamHasher hasher;
 
-    public Streams(int versionLruCacheSize, Function<Long, Integer> versionFetcher) {
-        this.versions = new LRUCache<>(versionLruCacheSize, streamHash -> new AtomicInteger(versionFetcher.apply(streamHash)));
+    public Streams(int versionCacheSize, LongToIntFunction versionFetcher) {
+        this.versions = new VersionTable(versionCacheSize, versionFetcher);
+        this.versionFetcher = versionFetcher;
         this.hasher = new StreamHasher(new XXHash(), new Murmur3Hash());
     }
 
@@ -53,7 +58,8 @@ public class Streams implements Closeable {
     public boolean create(StreamMetadata stream) {
         Objects.requireNonNull(stream);
         StringUtils.requireNonBlank(stream.name);
-        versions.set(stream.hash, new AtomicInteger(IndexEntry.NO_VERSION));
+        versions.set(stream.hash, IndexEntry.NO_VERSION);
+        deleted.remove(stream.hash); //versions start over, old entries can't be told apart from the new ones
         return streamsMap.putIfAbsent(stream.hash, stream) == null;
     }
 
@@ -61,6 +67,29 @@ public class Streams implements Closeable {
         return streamsMap.remove(streamHash);
     }
 
+    //entries up to versionAtDeletion are dead until a stream with the same name is created again
+    public StreamMetadata delete(long streamHash, int versionAtDeletion) {
+        deleted.merge(streamHash, versionAtDeletion + 1, Math::max);
+        return remove(streamHash);
+    }
+
+    //deleted streams and streams truncated by max count, at the time of the call
+    //called from the compaction thread, versions come from the index: they may lag behind the writer, which only keeps more entries
+    public Tombstones tombstones() {
+        Map<Long, Integer> firstLiveVersions = new HashMap<>(deleted);
+        for (StreamMetadata metadata : streamsMap.values()) {
+            if (metadata.maxCount <= 0) {
+                continue;
+            }
+            //same window as MaxCountFilteringIterator
+            int firstLive = versionFetcher.applyAsInt(metadata.hash) - metadata.maxCount + 1;
+            if (firstLive > 0) {
+                firstLiveVersions.merge(metadata.hash, firstLive, Math::max);
+            }
+        }
+        return new Tombstones(firstLiveVersions);
+    }
+
     //Only supports 'startingWith' wildcard
     //EX: users-*
     public Set<String> streamMatching(String value) {
@@ -84,22 +113,19 @@ public class Streams implements Closeable {
 
     }
 
+    //called by readers, a miss goes to the index without filling the version table
     public int version(long stream) {
-        return versions.getOrElse(stream, new AtomicInteger(IndexEntry.NO_VERSION)).get();
+        int cached = versions.cachedVersion(stream);
+        return cached != VersionTable.NOT_CACHED ? cached : versionFetcher.applyAsInt(stream);
     }
 
     public int tryIncrementVersion(long stream, int expected) {
-        AtomicInteger versionCounter = versions.getOrElse(stream, new AtomicInteger(IndexEntry.NO_VERSION));
-        if(expected < 0) {
-            return versionCounter.incrementAndGet();
-        }
-        int newValue = expected + 1;
-        if(!versionCounter.compareAndSet(expected, newValue)) {
-            throw new IllegalArgumentException("Version mismatch: expected stream " + stream + " version is higher than expected: " + expected);
-        }
-        return newValue;
+        return versions.tryIncrement(stream, expected);
     }
 
+    public VersionTable.Stats versionStats() {
+        return versions.stats();
+    }
 
 
     @Override
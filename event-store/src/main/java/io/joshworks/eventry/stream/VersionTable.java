@@ -0,0 +1,395 @@
+package io.joshworks.eventry.stream;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongToIntFunction;
+
+/**
+ * Bounded, concurrent stream hash -> last version table.
+ * Streams are spread across stripes, each one with its own lock used only for inserts, evictions and recency updates.
+ * Lookups are lock free (open addressing over an {@link AtomicReferenceArray}) and versions are updated with CAS.
+ * Eviction is segmented LRU: new streams enter a probation segment and are promoted to the protected segment on their
+ * second access, so a scan over many cold streams only evicts other cold streams.
+ * Only the writer thread fills the table ({@link #version(long)}, {@link #tryIncrement(long, int)}), readers use
+ * {@link #cachedVersion(long)} and never insert: a reader loading a version from the index could evict the entry the
+ * writer is incrementing and then cache a version older than the one being written.
+ */
+public class VersionTable {
+
+    private static final int MAX_STRIPES = 64;
+    private static final int MIN_STRIPE_CAPACITY = 16;
+    private static final double PROTECTED_RATIO = 0.8;
+
+    public static final int NOT_CACHED = Integer.MIN_VALUE;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private final LongToIntFunction versionFetcher;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity       Max number of streams kept in memory
+     * @param versionFetcher Loads the version of a stream that is not in memory
+     */
+    public VersionTable(int capacity, LongToIntFunction versionFetcher) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than zero");
+        }
+        int numStripes = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, capacity / MIN_STRIPE_CAPACITY)));
+        this.stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            int stripeCapacity = capacity / numStripes + (i < capacity % numStripes ? 1 : 0);
+            stripes[i] = new Stripe(stripeCapacity);
+        }
+        this.stripeShift = 32 - Integer.numberOfTrailingZeros(numStripes);
+        this.versionFetcher = versionFetcher;
+    }
+
+    //loads and caches the version on miss, writer thread only
+    public int version(long stream) {
+        return getOrLoad(stream).version;
+    }
+
+    //NOT_CACHED if the stream is not in memory, never loads
+    public int cachedVersion(long stream) {
+        Stripe stripe = stripeOf(stream);
+        Entry entry = stripe.find(stream);
+        if (entry == null) {
+            misses.increment();
+            return NOT_CACHED;
+        }
+        hits.increment();
+        touch(stripe, entry);
+        return entry.version;
+    }
+
+    //expected < 0 means any version, writer thread only
+    public int tryIncrement(long stream, int expected) {
+        Entry entry = getOrLoad(stream);
+        int newValue;
+        if (expected < 0) {
+            newValue = Entry.VERSION.incrementAndGet(entry);
+        } else {
+            newValue = expected + 1;
+            if (!Entry.VERSION.compareAndSet(entry, expected, newValue)) {
+                throw new IllegalArgumentException("Version mismatch: expected stream " + stream + " version is higher than expected: " + expected);
+            }
+        }
+        if (entry.removed) {
+            //evicted or removed after the lookup, the new version isn't in the index yet and would be lost
+            restore(stream, newValue);
+        }
+        return newValue;
+    }
+
+    private void restore(long stream, int version) {
+        Stripe stripe = stripeOf(stream);
+        stripe.lock.lock();
+        try {
+            Entry current = stripe.find(stream);
+            if (current == null) {
+                stripe.insert(stream, version);
+                evictions.add(stripe.evict());
+            } else if (current.version < version) {
+                current.version = version;
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    public void set(long stream, int version) {
+        Stripe stripe = stripeOf(stream);
+        stripe.lock.lock();
+        try {
+            Entry entry = stripe.find(stream);
+            if (entry == null) {
+                stripe.insert(stream, version);
+                evictions.add(stripe.evict());
+            } else {
+                entry.version = version;
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    public void remove(long stream) {
+        Stripe stripe = stripeOf(stream);
+        stripe.lock.lock();
+        try {
+            stripe.remove(stream);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    private Entry getOrLoad(long stream) {
+        Stripe stripe = stripeOf(stream);
+        Entry entry = stripe.find(stream);
+        if (entry != null) {
+            hits.increment();
+            touch(stripe, entry);
+            return entry;
+        }
+        misses.increment();
+        int version = versionFetcher.applyAsInt(stream); //might hit disk, must not hold the lock
+        stripe.lock.lock();
+        try {
+            entry = stripe.find(stream);
+            if (entry != null) { //loaded concurrently
+                return entry;
+            }
+            entry = stripe.insert(stream, version);
+            evictions.add(stripe.evict());
+            return entry;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    //recency is best effort, contended hits don't wait for the lock
+    private static void touch(Stripe stripe, Entry entry) {
+        if (stripe.lock.tryLock()) {
+            try {
+                stripe.onHit(entry);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    private Stripe stripeOf(long stream) {
+        if (stripes.length == 1) {
+            return stripes[0];
+        }
+        int h = (int) (stream ^ (stream >>> 32)) * 0x9E3779B9;
+        return stripes[h >>> stripeShift];
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size;
+        }
+        return size;
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), size());
+    }
+
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final int size;
+
+        private Stats(long hits, long misses, long evictions, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+        }
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", evictions=" + evictions +
+                    ", size=" + size +
+                    ", hitRate=" + hitRate() +
+                    '}';
+        }
+    }
+
+    private static final class Entry {
+
+        private static final AtomicIntegerFieldUpdater<Entry> VERSION = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "version");
+
+        private final long stream;
+        private volatile int version;
+
+        //guarded by the stripe lock
+        private Entry prev;
+        private Entry next;
+        private boolean isProtected;
+        private volatile boolean removed; //written under the stripe lock, checked without it after an increment
+
+        private Entry(long stream, int version) {
+            this.stream = stream;
+            this.version = version;
+        }
+    }
+
+    private static final class Stripe {
+
+        private static final Entry TOMBSTONE = new Entry(0, 0);
+        private static final int INITIAL_SLOTS = 16;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int capacity;
+        private final int protectedCapacity;
+
+        //written under lock, read without it
+        private volatile AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<>(INITIAL_SLOTS);
+        private int used; //live entries + tombstones
+        private volatile int size;
+
+        //circular lists, head.next is the most recently used
+        private final Entry probation = sentinel();
+        private final Entry protectedHead = sentinel();
+        private int protectedSize;
+
+        private Stripe(int capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = (int) (capacity * PROTECTED_RATIO);
+        }
+
+        private static Entry sentinel() {
+            Entry sentinel = new Entry(0, 0);
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            return sentinel;
+        }
+
+        private Entry find(long stream) {
+            AtomicReferenceArray<Entry> table = slots;
+            int mask = table.length() - 1;
+            int idx = slot(stream, mask);
+            Entry entry;
+            while ((entry = table.get(idx)) != null) {
+                if (entry != TOMBSTONE && entry.stream == stream) {
+                    return entry;
+                }
+                idx = (idx + 1) & mask;
+            }
+            return null;
+        }
+
+        //caller must hold the lock and ensure the stream is not present
+        private Entry insert(long stream, int version) {
+            if ((used + 1) * 4 > slots.length() * 3) { //load factor 0.75
+                rehash();
+            }
+            Entry entry = new Entry(stream, version);
+            AtomicReferenceArray<Entry> table = slots;
+            int mask = table.length() - 1;
+            int idx = slot(stream, mask);
+            Entry current;
+            while ((current = table.get(idx)) != null && current != TOMBSTONE) {
+                idx = (idx + 1) & mask;
+            }
+            if (current == null) {
+                used++;
+            }
+            table.set(idx, entry);
+            size++;
+            linkFirst(probation, entry);
+            return entry;
+        }
+
+        private void remove(long stream) {
+            AtomicReferenceArray<Entry> table = slots;
+            int mask = table.length() - 1;
+            int idx = slot(stream, mask);
+            Entry entry;
+            while ((entry = table.get(idx)) != null) {
+                if (entry != TOMBSTONE && entry.stream == stream) {
+                    table.set(idx, TOMBSTONE);
+                    size--;
+                    unlink(entry);
+                    if (entry.isProtected) {
+                        protectedSize--;
+                    }
+                    entry.removed = true;
+                    return;
+                }
+                idx = (idx + 1) & mask;
+            }
+        }
+
+        //drops tombstones, grows only if live entries need it
+        private void rehash() {
+            AtomicReferenceArray<Entry> table = slots;
+            int length = table.length();
+            int newLength = (size + 1) * 2 > length ? length * 2 : length;
+            AtomicReferenceArray<Entry> rehashed = new AtomicReferenceArray<>(newLength);
+            int mask = newLength - 1;
+            for (int i = 0; i < length; i++) {
+                Entry entry = table.get(i);
+                if (entry != null && entry != TOMBSTONE) {
+                    int idx = slot(entry.stream, mask);
+                    while (rehashed.get(idx) != null) {
+                        idx = (idx + 1) & mask;
+                    }
+                    rehashed.set(idx, entry);
+                }
+            }
+            used = size;
+            slots = rehashed;
+        }
+
+        private void onHit(Entry entry) {
+            if (entry.removed) {
+                return;
+            }
+            unlink(entry);
+            if (entry.isProtected) {
+                linkFirst(protectedHead, entry);
+                return;
+            }
+            //second access, promote it and demote the protected LRU if full
+            entry.isProtected = true;
+            protectedSize++;
+            linkFirst(protectedHead, entry);
+            if (protectedSize > protectedCapacity) {
+                Entry demoted = protectedHead.prev;
+                unlink(demoted);
+                demoted.isProtected = false;
+                protectedSize--;
+                linkFirst(probation, demoted);
+            }
+        }
+
+        private int evict() {
+            int evicted = 0;
+            while (size > capacity) {
+                Entry victim = probation.prev != probation ? probation.prev : protectedHead.prev;
+                remove(victim.stream);
+                evicted++;
+            }
+            return evicted;
+        }
+
+        private static void linkFirst(Entry head, Entry entry) {
+            entry.prev = head;
+            entry.next = head.next;
+            head.next.prev = entry;
+            head.next = entry;
+        }
+
+        private static void unlink(Entry entry) {
+            entry.prev.next = entry.next;
+            entry.next.prev = entry.prev;
+            entry.prev = null;
+            entry.next = null;
+        }
+
+        private static int slot(long stream, int mask) {
+            long h = stream * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
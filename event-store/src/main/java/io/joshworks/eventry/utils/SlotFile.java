@@ -0,0 +1,125 @@
+package io.joshworks.eventry.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append only array of fixed width slots kept off heap, backed by a file.
+ * The file is memory mapped (read only) when loaded, the first change copies it to a direct buffer.
+ * Only the slots from the lowest one changed since the last write are written back.
+ * Single writer: slots are filled through {@link #writable(int)} and published with {@link #publish(int)},
+ * readers use {@link #buffer()} and {@link #size()} without locking. Replaced buffers (and mappings) are left to the GC,
+ * readers might still be searching them.
+ */
+public class SlotFile {
+
+    private final File handler;
+    private final int slotBytes;
+    private final int initialSlots;
+
+    private volatile ByteBuffer buffer;
+    private volatile int size;
+    private boolean mapped;
+    private int dirtyFrom;
+    private boolean dirty;
+
+    public SlotFile(File handler, int slotBytes, int initialSlots) {
+        this.handler = handler;
+        this.slotBytes = slotBytes;
+        this.initialSlots = initialSlots;
+        load();
+    }
+
+    private void load() {
+        if (!handler.exists() || handler.length() == 0) {
+            buffer = ByteBuffer.allocateDirect(initialSlots * slotBytes);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(handler.toPath(), StandardOpenOption.READ)) {
+            int count = (int) (channel.size() / slotBytes);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, (long) count * slotBytes);
+            mapped = true;
+            size = count;
+            dirtyFrom = count;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load " + handler.getName(), e);
+        }
+    }
+
+    //current slots, for reading only, indexes below a previously read size are always valid
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Buffer with room for slotCount slots, slots below the current size can be changed as well.
+     * The returned buffer must not be kept, it's replaced when it grows
+     */
+    public ByteBuffer writable(int slotCount) {
+        ByteBuffer current = buffer;
+        if (!mapped && slotCount * slotBytes <= current.capacity()) {
+            return current;
+        }
+        //mapped file is read only, appending to a loaded file copies it off heap first
+        int newSlots = Math.max(initialSlots, Math.max(slotCount, (current.capacity() / slotBytes) * 2));
+        ByteBuffer grown = ByteBuffer.allocateDirect(newSlots * slotBytes);
+        ByteBuffer src = current.duplicate();
+        src.limit(size * slotBytes).position(0);
+        grown.put(src);
+        grown.clear();
+        buffer = grown;
+        mapped = false;
+        return grown;
+    }
+
+    //makes slots below newSize visible to readers, they must be filled first
+    public void publish(int newSize) {
+        size = newSize;
+    }
+
+    public void markDirty(int idx) {
+        dirtyFrom = Math.min(dirtyFrom, idx);
+        dirty = true;
+    }
+
+    public boolean dirty() {
+        return dirty;
+    }
+
+    public void write() {
+        if (!dirty) {
+            return;
+        }
+        int count = size;
+        ByteBuffer data = buffer.duplicate();
+        data.limit(count * slotBytes).position(dirtyFrom * slotBytes);
+        try (FileChannel channel = FileChannel.open(handler.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long filePosition = data.position();
+            while (data.hasRemaining()) {
+                filePosition += channel.write(data, filePosition);
+            }
+            channel.truncate((long) count * slotBytes);
+            channel.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write " + handler.getName(), e);
+        }
+        dirtyFrom = count;
+        dirty = false;
+    }
+
+    public void delete() {
+        try {
+            Files.deleteIfExists(handler.toPath());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
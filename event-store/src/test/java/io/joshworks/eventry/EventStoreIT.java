@@ -6,6 +6,8 @@ import io.joshworks.eventry.data.StreamCreated;
 import io.joshworks.eventry.data.SystemStreams;
 import io.joshworks.eventry.hash.Murmur3Hash;
 import io.joshworks.eventry.hash.XXHash;
+import io.joshworks.eventry.index.FlushPolicy;
+import io.joshworks.eventry.index.IndexEntry;
 import io.joshworks.eventry.index.Range;
 import io.joshworks.eventry.index.StreamHasher;
 import io.joshworks.eventry.index.TableIndex;
@@ -27,6 +29,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -591,11 +595,130 @@ public class EventStoreIT {
             store.append(EventRecord.create(stream, "type-1", "data-" + 1));
         }
 
+        //flush happens in background, closing waits for it and writes the marker
+        store.close();
+        store = EventStore.open(directory);
+
         List<EventRecord> indexEvents = store.fromStream(SystemStreams.INDEX).collect(Collectors.toList());
         assertEquals(1, indexEvents.size());
         var record = indexEvents.get(0);
         var indexFlushed = IndexFlushed.from(record);
         assertEquals(TableIndex.DEFAULT_FLUSH_THRESHOLD, indexFlushed.entries);
+        assertEquals(FlushPolicy.Trigger.ENTRIES.name(), indexFlushed.trigger);
+    }
+
+    @Test
+    public void appendAll_assigns_sequential_versions() {
+
+        //given
+        String stream = "stream-1";
+        List<EventRecord> events = IntStream.range(0, 1000)
+                .mapToObj(i -> EventRecord.create(stream, "type-1", "data-" + i))
+                .collect(Collectors.toList());
+
+        //when
+        List<EventRecord> appended = store.appendAll(events);
+
+        //then
+        assertEquals(events.size(), appended.size());
+        for (int i = 0; i < appended.size(); i++) {
+            assertEquals(i, appended.get(i).version);
+            assertEquals(i, store.get(stream, i).version);
+        }
+        assertEquals(events.size(), store.fromStream(stream).count());
+    }
+
+    @Test
+    public void appendAll_with_multiple_streams() {
+
+        //given
+        List<EventRecord> events = IntStream.range(0, 1000)
+                .mapToObj(i -> EventRecord.create("stream-" + (i % 10), "type-1", "data-" + i))
+                .collect(Collectors.toList());
+
+        //when
+        store.appendAll(events);
+
+        //then
+        for (int i = 0; i < 10; i++) {
+            assertEquals(99, store.version("stream-" + i));
+            assertEquals(100, store.fromStream("stream-" + i).count());
+        }
+    }
+
+    @Test
+    public void appendAll_with_expected_version() {
+
+        //given
+        String stream = "stream-1";
+        store.append(EventRecord.create(stream, "type-1", "data"));
+
+        //when
+        List<EventRecord> appended = store.appendAll(List.of(
+                EventRecord.create(stream, "type-1", "data"),
+                EventRecord.create(stream, "type-1", "data")), 0);
+
+        //then
+        assertEquals(1, appended.get(0).version);
+        assertEquals(2, appended.get(1).version);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void appendAll_with_wrong_expected_version() {
+        String stream = "stream-1";
+        store.append(EventRecord.create(stream, "type-1", "data"));
+        store.appendAll(List.of(EventRecord.create(stream, "type-1", "data")), 5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void appendAll_with_expected_version_requires_single_stream() {
+        store.appendAll(List.of(
+                EventRecord.create("stream-1", "type-1", "data"),
+                EventRecord.create("stream-2", "type-1", "data")), IndexEntry.NO_VERSION);
+    }
+
+    @Test
+    public void appendAsync_completes_with_written_event() {
+
+        //given
+        String stream = "stream-1";
+        List<CompletableFuture<EventRecord>> futures = IntStream.range(0, 1000)
+                .mapToObj(i -> store.appendAsync(EventRecord.create(stream, "type-1", "data-" + i)))
+                .collect(Collectors.toList());
+
+        //when
+        List<EventRecord> appended = futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+
+        //then
+        for (int i = 0; i < appended.size(); i++) {
+            assertEquals(i, appended.get(i).version);
+        }
+        assertEquals(futures.size(), store.fromStream(stream).count());
+    }
+
+    @Test
+    public void appendAsync_with_wrong_expected_version_completes_exceptionally() {
+        String stream = "stream-1";
+        store.append(EventRecord.create(stream, "type-1", "data"));
+
+        CompletableFuture<EventRecord> future = store.appendAsync(EventRecord.create(stream, "type-1", "data"), 5);
+        try {
+            future.join();
+            fail("Expected version mismatch");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void appendAsync_with_invalid_event_completes_exceptionally() {
+        CompletableFuture<EventRecord> future = store.appendAsync(EventRecord.create(Constant.SYSTEM_PREFIX + "stream", "type-1", "data"));
+        try {
+            future.join();
+            fail("Expected invalid stream");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -0,0 +1,161 @@
+package io.joshworks.eventry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EventWriterTest {
+
+    private EventWriter writer;
+    private final AtomicInteger commits = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        writer = new EventWriter("test-writer", 100, 10, commits::incrementAndGet);
+    }
+
+    @After
+    public void tearDown() {
+        writer.close();
+    }
+
+    @Test
+    public void tasks_from_multiple_threads_are_executed_sequentially() throws Exception {
+        int[] counter = {0};
+        int tasks = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < tasks; i++) {
+                futures.add(executor.submit(() -> writer.submit(() -> counter[0]++).join()));
+            }
+            Set<Integer> results = new HashSet<>();
+            for (Future<Integer> future : futures) {
+                results.add(future.get());
+            }
+            assertEquals(tasks, results.size());
+            assertEquals(tasks, counter[0]);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void commit_is_called_before_completing_the_task() {
+        int committed = writer.submit(commits::get).join();
+        assertEquals(committed + 1, commits.get());
+    }
+
+    @Test
+    public void failed_task_completes_exceptionally() {
+        try {
+            writer.submit(() -> {
+                throw new IllegalArgumentException("failed");
+            }).join();
+            fail("Expected exception");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void task_submitted_from_writer_thread_runs_inline() {
+        int result = writer.submit(() -> writer.submit(() -> 1).join()).join();
+        assertEquals(1, result);
+    }
+
+    @Test
+    public void task_throwing_an_error_completes_exceptionally() {
+        try {
+            writer.submit(() -> {
+                throw new AssertionError("failed");
+            }).join();
+            fail("Expected exception");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+        //the writer thread is still running
+        assertEquals(1, (int) writer.submit(() -> 1).join());
+    }
+
+    @Test
+    public void tasks_submitted_while_closing_are_completed_or_rejected() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> producers = new ArrayList<>();
+        AtomicInteger completed = new AtomicInteger();
+        try {
+            for (int i = 0; i < 4; i++) {
+                producers.add(executor.submit(() -> {
+                    while (true) {
+                        try {
+                            writer.submit(() -> 1).join();
+                        } catch (CompletionException e) {
+                            //failed by the shutdown drain
+                        } catch (IllegalStateException e) {
+                            return; //closed
+                        }
+                        completed.incrementAndGet();
+                    }
+                }));
+            }
+            Thread.sleep(100);
+            writer.close();
+            for (Future<?> producer : producers) {
+                producer.get(5, TimeUnit.SECONDS); //a stranded task would hang here
+            }
+            assertTrue(completed.get() > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void producers_wait_for_space_when_the_queue_is_full() throws Exception {
+        writer.close();
+        writer = new EventWriter("test-writer", 2, 1, () -> sleep(5));
+        int producers = 8;
+        int tasks = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        AtomicInteger executed = new AtomicInteger();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < tasks; i++) {
+                        writer.submit(executed::incrementAndGet);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            writer.submit(() -> 0).join();
+            assertEquals(producers * tasks, executed.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package io.joshworks.eventry.index;
+
+import org.junit.Test;
+
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompactionPolicyTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tiered_requires_at_least_two_segments_per_level() {
+        CompactionPolicy.tiered(1);
+    }
+
+    @Test
+    public void no_merges_has_no_write_amplification() {
+        CompactionStats stats = stats(1000, 0);
+        assertEquals(1.0, stats.writeAmplification(), 0.0001);
+    }
+
+    @Test
+    public void merged_entries_count_towards_write_amplification() {
+        //four flushes merged in pairs, then the two results merged again
+        CompactionStats stats = stats(4000, 8000);
+        assertEquals(3.0, stats.writeAmplification(), 0.0001);
+    }
+
+    @Test
+    public void nothing_flushed() {
+        assertEquals(0, stats(0, 0).writeAmplification(), 0.0001);
+    }
+
+    private static CompactionStats stats(long flushed, long written) {
+        return new CompactionStats("test", 0, flushed, written, written, 0, 0, 0, 0, new TreeMap<>(), new TreeMap<>());
+    }
+}
@@ -0,0 +1,71 @@
+package io.joshworks.eventry.index;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompactionThrottleTest {
+
+    @Test
+    public void unlimited_never_waits() {
+        CompactionThrottle throttle = CompactionThrottle.unlimited();
+        throttle.beginMerge();
+        long start = System.currentTimeMillis();
+        throttle.acquire(Long.MAX_VALUE / 2);
+        throttle.endMerge();
+        assertTrue(System.currentTimeMillis() - start < 100);
+        assertEquals(0, throttle.stats().throttledMillis);
+    }
+
+    @Test
+    public void writes_are_paced_to_the_budget() {
+        CompactionThrottle throttle = new CompactionThrottle(1000, 1, CompactionThrottle.UNLIMITED, TimeUnit.MILLISECONDS, Long.MAX_VALUE);
+        throttle.beginMerge();
+        throttle.acquire(1000); //first second is available as burst
+        long start = System.currentTimeMillis();
+        throttle.acquire(1000);
+        throttle.acquire(200);
+        long elapsed = System.currentTimeMillis() - start;
+        throttle.endMerge();
+
+        assertTrue("Elapsed: " + elapsed, elapsed >= 150);
+        assertEquals(2200, throttle.stats().bytesWritten);
+    }
+
+    @Test
+    public void backs_off_while_flush_backlog_is_above_threshold() throws InterruptedException {
+        CompactionThrottle throttle = new CompactionThrottle(CompactionThrottle.UNLIMITED, 1, CompactionThrottle.UNLIMITED, TimeUnit.MILLISECONDS, 0);
+        throttle.flushBacklog(1000);
+        Thread merge = new Thread(() -> {
+            throttle.beginMerge();
+            throttle.acquire(10);
+            throttle.endMerge();
+        });
+        merge.start();
+        Thread.sleep(200);
+        assertEquals(CompactionThrottle.State.BACKING_OFF, throttle.state());
+
+        throttle.flushBacklog(0);
+        merge.join(2000);
+        assertEquals(CompactionThrottle.State.IDLE, throttle.state());
+        assertTrue(throttle.stats().backoffMillis > 0);
+    }
+
+    @Test
+    public void append_p99_of_recent_appends() {
+        CompactionThrottle throttle = new CompactionThrottle(CompactionThrottle.UNLIMITED, 1, 10, TimeUnit.MILLISECONDS, Long.MAX_VALUE);
+        assertEquals(0, throttle.appendP99Nanos());
+        for (int i = 1; i <= 100; i++) {
+            throttle.recordAppendLatency(i);
+        }
+        assertEquals(99, throttle.appendP99Nanos());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void at_least_one_concurrent_merge() {
+        new CompactionThrottle(CompactionThrottle.UNLIMITED, 0, CompactionThrottle.UNLIMITED, TimeUnit.MILLISECONDS, 0);
+    }
+}
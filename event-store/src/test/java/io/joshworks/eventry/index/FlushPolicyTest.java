@@ -0,0 +1,90 @@
+package io.joshworks.eventry.index;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FlushPolicyTest {
+
+    private final MemIndex memIndex = new MemIndex();
+
+    @Test
+    public void entries_fires_when_threshold_is_reached() {
+        FlushPolicy policy = FlushPolicy.entries(1000);
+        addEntries(999, 1);
+        assertNull(policy.check(memIndex, -1));
+
+        addEntries(1, 1);
+        assertEquals(FlushPolicy.Trigger.ENTRIES, policy.check(memIndex, -1));
+    }
+
+    @Test
+    public void memory_fires_when_memtable_grows_past_the_budget() {
+        long budget = 1000L * MemIndex.ENTRY_BYTES;
+        FlushPolicy policy = FlushPolicy.memory(budget);
+        addEntries(10, 1);
+        assertNull(policy.check(memIndex, -1));
+
+        addEntries(budget / MemIndex.ENTRY_BYTES, 1000);
+        assertEquals(FlushPolicy.Trigger.MEMORY, policy.check(memIndex, -1));
+    }
+
+    @Test
+    public void memory_usage_grows_with_streams() {
+        long empty = memIndex.memoryUsage();
+        addEntries(10000, 1);
+        long singleStream = memIndex.memoryUsage();
+
+        MemIndex manyStreams = new MemIndex();
+        for (int i = 0; i < 10000; i++) {
+            manyStreams.add(IndexEntry.of(i, 0, i));
+        }
+        assertTrue(singleStream > empty);
+        assertTrue(manyStreams.memoryUsage() > singleStream);
+    }
+
+    @Test
+    public void log_bytes_counts_from_last_flushed_position() {
+        FlushPolicy policy = FlushPolicy.logBytes(1000);
+        memIndex.add(IndexEntry.of(1, 0, 5000));
+        memIndex.add(IndexEntry.of(1, 1, 5500));
+        assertNull(policy.check(memIndex, -1));
+        assertEquals(FlushPolicy.Trigger.LOG_BYTES, policy.check(memIndex, 4000));
+    }
+
+    @Test
+    public void age_fires_after_max_age() throws InterruptedException {
+        FlushPolicy policy = FlushPolicy.age(50, TimeUnit.MILLISECONDS);
+        memIndex.add(IndexEntry.of(1, 0, 0));
+        assertNull(policy.check(memIndex, -1));
+
+        Thread.sleep(100);
+        assertEquals(FlushPolicy.Trigger.AGE, policy.check(memIndex, -1));
+    }
+
+    @Test
+    public void anyOf_returns_first_fired_trigger_and_smallest_expected_entries() {
+        FlushPolicy policy = FlushPolicy.anyOf(FlushPolicy.logBytes(10), FlushPolicy.entries(2000), FlushPolicy.entries(1000));
+        assertEquals(1000, policy.expectedEntries());
+
+        addEntries(1000, 1);
+        assertEquals(FlushPolicy.Trigger.LOG_BYTES, policy.check(memIndex, 0));
+        assertEquals(FlushPolicy.Trigger.ENTRIES, FlushPolicy.anyOf(FlushPolicy.logBytes(Long.MAX_VALUE), FlushPolicy.entries(1000)).check(memIndex, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void entries_threshold_must_be_at_least_1000() {
+        FlushPolicy.entries(999);
+    }
+
+    private void addEntries(long count, long stream) {
+        int start = memIndex.version(stream) + 1;
+        for (int i = 0; i < count; i++) {
+            memIndex.add(IndexEntry.of(stream, start + i, memIndex.size()));
+        }
+    }
+}
@@ -8,6 +8,11 @@ import org.junit.Test;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
@@ -472,4 +477,172 @@ public class MemIndexTest {
         poller.poll();
         assertTrue(poller.headOfLog());
     }
+
+    @Test
+    public void duplicated_version_is_ignored() {
+        index.add(IndexEntry.of(0, 1, 10));
+        index.add(IndexEntry.of(0, 1, 20));
+
+        assertEquals(1, index.size());
+        assertEquals(10, index.get(0, 1).get().position);
+    }
+
+    @Test
+    public void get_returns_entries_added_out_of_order() {
+        index.add(IndexEntry.of(0, 3, 30));
+        index.add(IndexEntry.of(0, 1, 10));
+        index.add(IndexEntry.of(0, 2, 20));
+
+        assertEquals(10, index.get(0, 1).get().position);
+        assertEquals(20, index.get(0, 2).get().position);
+        assertEquals(30, index.get(0, 3).get().position);
+        assertEquals(3, index.version(0));
+    }
+
+    @Test
+    public void get_returns_entries_with_version_gaps() {
+        index.add(IndexEntry.of(0, 1, 10));
+        index.add(IndexEntry.of(0, 5, 50));
+        index.add(IndexEntry.of(0, 9, 90));
+
+        assertEquals(50, index.get(0, 5).get().position);
+        assertFalse(index.get(0, 2).isPresent());
+        assertFalse(index.get(0, 10).isPresent());
+    }
+
+    @Test
+    public void range_iterator_backward_returns_entries_in_reverse_order() {
+        for (int i = 0; i < 10; i++) {
+            index.add(IndexEntry.of(0, i, i));
+        }
+
+        Iterator<IndexEntry> iterator = index.iterator(Direction.BACKWARD, Range.of(0, 2, 8));
+        for (int version = 7; version >= 2; version--) {
+            assertEquals(version, iterator.next().version);
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void entries_are_kept_after_growing() {
+        int streams = 5000;
+        for (int stream = 0; stream < streams; stream++) {
+            for (int version = 0; version < 3; version++) {
+                index.add(IndexEntry.of(stream, version, stream));
+            }
+        }
+
+        assertEquals(streams * 3, index.size());
+        assertEquals(streams, index.streams());
+        for (int stream = 0; stream < streams; stream++) {
+            assertEquals(2, index.version(stream));
+            assertEquals(stream, index.get(stream, 1).get().position);
+        }
+    }
+
+    @Test
+    public void iterator_backward_returns_streams_and_versions_in_reverse_order() {
+        for (int stream = 0; stream < 10; stream++) {
+            for (int version = 0; version < 3; version++) {
+                index.add(IndexEntry.of(stream, version, 0));
+            }
+        }
+
+        LogIterator<IndexEntry> iterator = index.iterator(Direction.BACKWARD);
+        for (int stream = 9; stream >= 0; stream--) {
+            for (int version = 2; version >= 0; version--) {
+                IndexEntry next = iterator.next();
+                assertEquals(stream, next.stream);
+                assertEquals(version, next.version);
+            }
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void iterator_is_sorted_when_streams_are_added_between_scans() {
+        for (int stream = 20; stream > 10; stream--) {
+            index.add(IndexEntry.of(stream, 0, 0));
+        }
+        assertEquals(10, index.stream(Direction.FORWARD).count());
+
+        for (int stream = 0; stream < 30; stream += 2) {
+            index.add(IndexEntry.of(stream, 0, 0));
+        }
+
+        IndexEntry last = null;
+        LogIterator<IndexEntry> iterator = index.iterator(Direction.FORWARD);
+        int count = 0;
+        while (iterator.hasNext()) {
+            IndexEntry next = iterator.next();
+            if (last != null) {
+                assertTrue(next.stream > last.stream);
+            }
+            last = next;
+            count++;
+        }
+        assertEquals(index.streams(), count);
+    }
+
+    @Test
+    public void readers_see_consistent_snapshots_while_writer_appends() throws Exception {
+        int streams = 200;
+        int versions = 200;
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?> writer = executor.submit(() -> {
+                for (int version = 0; version < versions; version++) {
+                    for (int stream = 0; stream < streams; stream++) {
+                        index.add(IndexEntry.of(stream, version, stream));
+                    }
+                }
+                done.set(true);
+            });
+
+            Future<?> scanner = executor.submit(() -> {
+                while (!done.get()) {
+                    IndexEntry last = null;
+                    LogIterator<IndexEntry> iterator = index.iterator(Direction.FORWARD);
+                    while (iterator.hasNext()) {
+                        IndexEntry next = iterator.next();
+                        if (last != null && last.stream == next.stream) {
+                            assertEquals(last.version + 1, next.version);
+                        }
+                        assertEquals(next.stream, next.position);
+                        last = next;
+                    }
+                }
+            });
+
+            Future<?> reader = executor.submit(() -> {
+                while (!done.get()) {
+                    for (int stream = 0; stream < streams; stream++) {
+                        int version = index.version(stream);
+                        if (version != IndexEntry.NO_VERSION) {
+                            assertEquals(stream, index.get(stream, version).get().position);
+                        }
+                    }
+                }
+            });
+
+            Future<?> polling = executor.submit(() -> {
+                PollingSubscriber<IndexEntry> poller = index.poller();
+                for (int i = 0; i < streams * versions; i++) {
+                    IndexEntry entry = poller.take();
+                    assertEquals(i / streams, entry.version);
+                    assertEquals(i % streams, entry.stream);
+                }
+                return null;
+            });
+
+            writer.get(30, TimeUnit.SECONDS);
+            scanner.get(30, TimeUnit.SECONDS);
+            reader.get(30, TimeUnit.SECONDS);
+            polling.get(30, TimeUnit.SECONDS);
+            assertEquals(streams * versions, index.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
@@ -9,12 +9,16 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
@@ -293,6 +297,30 @@ public class TableIndexTest {
         assertEquals(IndexEntry.NO_VERSION, version);
     }
 
+    @Test
+    public void stream_filter_keeps_flushed_streams_after_reopen() {
+        tableIndex.add(1, 0, 0);
+        tableIndex.flush();
+        tableIndex.close();
+
+        tableIndex = new TableIndex(testDirectory, FLUSH_THRESHOLD, USE_COMPRESSION);
+        assertEquals(0, tableIndex.version(1));
+        assertEquals(IndexEntry.NO_VERSION, tableIndex.version(2));
+    }
+
+    @Test
+    public void stream_filter_is_rebuilt_from_disk_when_missing() {
+        tableIndex.add(1, 0, 0);
+        tableIndex.flush();
+        tableIndex.close();
+
+        assertTrue(new File(new File(testDirectory, "index"), "streams.ftr").delete());
+
+        tableIndex = new TableIndex(testDirectory, FLUSH_THRESHOLD, USE_COMPRESSION);
+        assertEquals(0, tableIndex.version(1));
+        assertTrue(tableIndex.get(1, 0).isPresent());
+    }
+
     @Test
     public void poll_returns_data_from_memory() throws IOException, InterruptedException {
         int entries = 500;
@@ -600,4 +628,98 @@ public class TableIndexTest {
         writeThread.join();
     }
 
-}
\ No newline at end of file
+
+    @Test
+    public void background_flush_notifies_listener_and_keeps_entries_readable() {
+        tableIndex.close();
+
+        List<TableIndex.FlushInfo> flushed = new ArrayList<>();
+        int threshold = 1000;
+        long stream = 1;
+        try (TableIndex index = new TableIndex(testDirectory, threshold, USE_COMPRESSION, flushed::add)) {
+            for (int i = 0; i < threshold; i++) {
+                index.add(stream, i, i);
+            }
+            //readable from either the frozen memtable or disk
+            assertEquals(threshold - 1, index.version(stream));
+            assertTrue(index.get(stream, 0).isPresent());
+
+            index.awaitPendingFlush();
+
+            assertEquals(1, flushed.size());
+            assertEquals(threshold, flushed.get(0).entries);
+            assertEquals(threshold - 1, flushed.get(0).logPosition);
+            assertEquals(FlushPolicy.Trigger.ENTRIES, flushed.get(0).trigger);
+            assertEquals(threshold, index.stream(Direction.FORWARD, Range.allOf(stream)).count());
+        }
+    }
+
+    @Test
+    public void writes_are_accepted_while_flushes_keep_up() {
+        tableIndex.close();
+
+        int threshold = 100;
+        long stream = 1;
+        try (TableIndex index = new TableIndex(testDirectory, threshold, USE_COMPRESSION, info -> {})) {
+            for (int i = 0; i < threshold * 20; i++) {
+                index.checkCapacity();
+                index.add(stream, i, i);
+            }
+            index.awaitPendingFlush();
+            assertEquals(threshold * 20, index.stream(Direction.FORWARD, Range.allOf(stream)).count());
+        }
+    }
+
+    @Test
+    public void iterators_never_return_an_entry_twice_while_flushing() throws InterruptedException {
+        tableIndex.close();
+
+        int threshold = 500;
+        int entries = threshold * 20;
+        long stream = 1;
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        try (TableIndex index = new TableIndex(testDirectory, threshold, USE_COMPRESSION)) {
+            Thread reader = new Thread(() -> {
+                while (!done.get() && failure.get() == null) {
+                    //versions must be contiguous from zero, a duplicated or missing entry breaks the sequence
+                    int expected = 0;
+                    try (Stream<IndexEntry> found = index.stream(Direction.FORWARD, Range.allOf(stream))) {
+                        for (IndexEntry entry : (Iterable<IndexEntry>) found::iterator) {
+                            if (entry.version != expected++) {
+                                failure.set("Expected version " + (expected - 1) + " got " + entry.version);
+                                return;
+                            }
+                        }
+                    }
+                }
+            });
+            reader.start();
+            for (int i = 0; i < entries; i++) {
+                index.add(stream, i, i);
+            }
+            index.awaitPendingFlush();
+            done.set(true);
+            reader.join();
+
+            assertNull(failure.get());
+            assertEquals(entries, index.stream(Direction.FORWARD, Range.allOf(stream)).count());
+        }
+    }
+
+    @Test
+    public void mapped_segments_return_flushed_entries() {
+        tableIndex.close();
+
+        try (TableIndex index = new TableIndex(testDirectory, FlushPolicy.entries(FLUSH_THRESHOLD), CompactionPolicy.appendOnly(), CompactionThrottle.unlimited(), USE_COMPRESSION, true, info -> {})) {
+            for (int stream = 0; stream < 1000; stream++) {
+                index.add(stream, 0, stream);
+            }
+            index.flush();
+
+            for (int stream = 0; stream < 1000; stream++) {
+                assertEquals(stream, index.get(stream, 0).get().position);
+            }
+        }
+    }
+}
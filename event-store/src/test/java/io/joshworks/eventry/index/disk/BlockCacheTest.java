@@ -0,0 +1,111 @@
+package io.joshworks.eventry.index.disk;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BlockCacheTest {
+
+    private static final int BLOCK_WEIGHT = 100;
+
+    @Test
+    public void block_is_loaded_once() {
+        BlockCache<String> cache = new BlockCache<>(1024 * 1024, v -> BLOCK_WEIGHT);
+        AtomicInteger loads = new AtomicInteger();
+        int segment = cache.newSegmentId();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("block-0", cache.get(segment, 0, pos -> {
+                loads.incrementAndGet();
+                return "block-" + pos;
+            }));
+        }
+
+        assertEquals(1, loads.get());
+        BlockCache.Stats stats = cache.stats();
+        assertEquals(9, stats.hits);
+        assertEquals(1, stats.misses);
+        assertEquals(0.9, stats.hitRate(), 0.001);
+    }
+
+    @Test
+    public void blocks_are_keyed_by_segment_and_position() {
+        BlockCache<String> cache = new BlockCache<>(1024 * 1024, v -> BLOCK_WEIGHT);
+        int segment1 = cache.newSegmentId();
+        int segment2 = cache.newSegmentId();
+
+        cache.get(segment1, 0, pos -> "a");
+        cache.get(segment1, 4096, pos -> "b");
+
+        assertEquals("a", cache.get(segment1, 0, pos -> "other"));
+        assertEquals("b", cache.get(segment1, 4096, pos -> "other"));
+        assertEquals("c", cache.get(segment2, 0, pos -> "c"));
+    }
+
+    @Test
+    public void size_is_bounded() {
+        long maxBytes = 16 * BLOCK_WEIGHT * 10;
+        BlockCache<String> cache = new BlockCache<>(maxBytes, v -> BLOCK_WEIGHT);
+        int segment = cache.newSegmentId();
+        for (int i = 0; i < 10000; i++) {
+            cache.get(segment, i * 4096L, pos -> "block");
+        }
+        BlockCache.Stats stats = cache.stats();
+        assertTrue(stats.bytes <= maxBytes);
+        assertEquals(10000 - stats.blocks, stats.evictions);
+    }
+
+    @Test
+    public void hot_blocks_survive_a_scan() {
+        BlockCache<String> cache = new BlockCache<>(16 * BLOCK_WEIGHT * 10, v -> BLOCK_WEIGHT);
+        int segment = cache.newSegmentId();
+        AtomicInteger loads = new AtomicInteger();
+
+        //second access promotes to the protected segment
+        for (int i = 0; i < 2; i++) {
+            for (long pos = 0; pos < 4; pos++) {
+                cache.get(segment, pos, p -> "hot");
+            }
+        }
+        for (long pos = 1000; pos < 100000; pos++) {
+            cache.get(segment, pos, p -> "cold");
+        }
+
+        for (long pos = 0; pos < 4; pos++) {
+            cache.get(segment, pos, p -> {
+                loads.incrementAndGet();
+                return "hot";
+            });
+        }
+        assertEquals(0, loads.get());
+    }
+
+    @Test
+    public void invalidate_removes_only_the_segment_blocks() {
+        BlockCache<String> cache = new BlockCache<>(1024 * 1024, v -> BLOCK_WEIGHT);
+        int segment1 = cache.newSegmentId();
+        int segment2 = cache.newSegmentId();
+        cache.get(segment1, 0, pos -> "a");
+        cache.get(segment2, 0, pos -> "b");
+
+        cache.invalidate(segment1);
+
+        assertEquals(1, cache.stats().blocks);
+        assertEquals("new", cache.get(segment1, 0, pos -> "new"));
+        assertEquals("b", cache.get(segment2, 0, pos -> "other"));
+    }
+
+    @Test
+    public void zero_size_disables_caching() {
+        BlockCache<String> cache = new BlockCache<>(0, v -> BLOCK_WEIGHT);
+        AtomicInteger loads = new AtomicInteger();
+        int segment = cache.newSegmentId();
+        cache.get(segment, 0, pos -> "a" + loads.incrementAndGet());
+        cache.get(segment, 0, pos -> "a" + loads.incrementAndGet());
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.stats().blocks);
+    }
+}
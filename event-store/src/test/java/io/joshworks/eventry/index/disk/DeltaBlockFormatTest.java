@@ -0,0 +1,115 @@
+package io.joshworks.eventry.index.disk;
+
+import io.joshworks.eventry.index.IndexEntry;
+import io.joshworks.fstore.core.Codec;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeltaBlockFormatTest {
+
+    private static final Codec NO_COMPRESSION = new Codec() {
+        @Override
+        public ByteBuffer compress(ByteBuffer data) {
+            return data;
+        }
+
+        @Override
+        public ByteBuffer decompress(ByteBuffer data) {
+            return data.slice();
+        }
+    };
+
+    @Test
+    public void decode_returns_fixed_width_layout() {
+        List<IndexEntry> entries = new ArrayList<>();
+        entries.add(IndexEntry.of(-10, 0, 5));
+        entries.add(IndexEntry.of(-10, 1, 3)); //positions might go backwards
+        entries.add(IndexEntry.of(1, 3, 100));
+        entries.add(IndexEntry.of(1, 4, 200));
+        entries.add(IndexEntry.of(1, 9, 300));
+        entries.add(IndexEntry.of(2, Integer.MAX_VALUE, Long.MAX_VALUE));
+
+        ByteBuffer decoded = DeltaBlockFormat.decode(DeltaBlockFormat.encode(entries), entries.size());
+
+        assertEquals(fixedWidth(entries), decoded);
+    }
+
+    @Test
+    public void contiguous_versions_are_much_smaller_than_fixed_width() {
+        List<IndexEntry> entries = new ArrayList<>();
+        long position = 1000000;
+        for (int stream = 0; stream < 10; stream++) {
+            for (int version = 0; version < 20; version++) {
+                entries.add(IndexEntry.of(stream, version, position));
+                position += 150;
+            }
+        }
+
+        ByteBuffer encoded = DeltaBlockFormat.encode(entries);
+        ByteBuffer fixed = fixedWidth(entries);
+        assertTrue(encoded.remaining() * 3 < fixed.remaining());
+        assertEquals(fixed, DeltaBlockFormat.decode(encoded, entries.size()));
+    }
+
+    @Test
+    public void varint_round_trip() {
+        long[] values = {0, 1, 127, 128, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1};
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 10);
+        for (long value : values) {
+            DeltaBlockFormat.putVarint(buffer, value);
+        }
+        buffer.flip();
+        for (long value : values) {
+            assertEquals(value, DeltaBlockFormat.getVarint(buffer));
+        }
+    }
+
+    @Test
+    public void serializer_reads_delta_blocks() {
+        IndexBlockSerializer serializer = new IndexBlockSerializer(NO_COMPRESSION);
+        IndexBlock block = new IndexBlock(4096);
+        for (int version = 0; version < 50; version++) {
+            block.add(IndexEntry.of(1, version, version * 10));
+        }
+
+        IndexBlock read = serializer.fromBytes(serializer.toBytes(block));
+
+        assertEquals(block.entries(), read.entries());
+        assertEquals(490, PackedBlock.of(read.packed()).position(1, 49));
+    }
+
+    @Test
+    public void serializer_reads_legacy_fixed_width_blocks() {
+        List<IndexEntry> entries = List.of(IndexEntry.of(1, 0, 10), IndexEntry.of(1, 1, 20), IndexEntry.of(2, 0, 30));
+        ByteBuffer fixed = fixedWidth(entries);
+        ByteBuffer legacy = ByteBuffer.allocate(Integer.BYTES + fixed.remaining());
+        legacy.putInt(entries.size()).put(fixed).flip();
+
+        IndexBlock read = new IndexBlockSerializer(NO_COMPRESSION).fromBytes(legacy);
+
+        assertEquals(entries, read.entries());
+    }
+
+    private static ByteBuffer fixedWidth(List<IndexEntry> entries) {
+        ByteBuffer buffer = ByteBuffer.allocate(entries.size() * (PackedBlock.HEADER_BYTES + PackedBlock.ENTRY_BYTES));
+        int i = 0;
+        while (i < entries.size()) {
+            long stream = entries.get(i).stream;
+            int end = i;
+            while (end < entries.size() && entries.get(end).stream == stream) {
+                end++;
+            }
+            buffer.putLong(stream).putInt(end - i);
+            for (; i < end; i++) {
+                buffer.putInt(entries.get(i).version).putLong(entries.get(i).position);
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -2,6 +2,7 @@ package io.joshworks.eventry.index.disk;
 
 import io.joshworks.eventry.Utils;
 import io.joshworks.eventry.index.IndexEntry;
+import io.joshworks.eventry.index.Range;
 import io.joshworks.fstore.core.Codec;
 import io.joshworks.fstore.log.Direction;
 import io.joshworks.fstore.log.LogIterator;
@@ -13,9 +14,14 @@ import org.junit.Test;
 
 import java.io.File;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class IndexAppenderTest {
 
@@ -26,7 +32,7 @@ public class IndexAppenderTest {
     public void setUp() {
         location = new File("J:\\EVENT-STORE\\" + UUID.randomUUID().toString().substring(0, 8));
         Config<IndexEntry> config = LogAppender.builder(location, new IndexEntrySerializer()).disableCompaction();
-        appender = new IndexAppender(config, 10000, Codec.noCompression());
+        appender = new IndexAppender(config, 10000, Codec.noCompression(), 1024 * 1024);
     }
 
     @After
@@ -74,7 +80,7 @@ public class IndexAppenderTest {
         for (int i = 0; i < 1000000; i++) {
             appender.append(IndexEntry.of(i, 1, 0));
         }
-        appender.flush();
+        appender.roll(); //only sealed segments are read
         System.out.println("WRITE " + (System.currentTimeMillis() - start));
 
 
@@ -107,7 +113,7 @@ public class IndexAppenderTest {
                 appender.roll();
             }
         }
-        appender.flush();
+        appender.roll();
 
         long start = System.currentTimeMillis();
         for (int i = 0; i < streams; i++) {
@@ -122,9 +128,110 @@ public class IndexAppenderTest {
         }
     }
 
+    @Test
+    public void entries_of_the_segment_being_written_are_not_read_until_rolled() {
+        appender.append(IndexEntry.of(1, 0, 0));
+
+        assertEquals(IndexEntry.NO_VERSION, appender.version(1));
+        assertFalse(appender.get(1, 0).isPresent());
+        assertFalse(appender.iterator(Direction.FORWARD).hasNext());
+
+        appender.roll();
+
+        assertEquals(0, appender.version(1));
+        assertTrue(appender.get(1, 0).isPresent());
+        assertTrue(appender.iterator(Direction.FORWARD).hasNext());
+    }
+
     @Test
     public void version_is_minus_one_for_non_existing_stream() {
         int version = appender.version(1234);
         assertEquals(IndexEntry.NO_VERSION, version);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void range_iterator_merges_segments_of_a_recreated_stream() {
+        long stream = 123;
+        for (int version = 0; version < 3; version++) {
+            appender.append(IndexEntry.of(stream, version, version));
+        }
+        appender.roll();
+        //deleted and created again, versions start over
+        for (int version = 0; version < 2; version++) {
+            appender.append(IndexEntry.of(stream, version, 100 + version));
+        }
+        appender.roll();
+
+        List<IndexEntry> forward = appender.stream(Direction.FORWARD, Range.allOf(stream)).collect(Collectors.toList());
+        assertEquals(3, forward.size());
+        assertEquals(100, forward.get(0).position);
+        assertEquals(101, forward.get(1).position);
+        assertEquals(2, forward.get(2).position);
+
+        List<IndexEntry> backward = appender.stream(Direction.BACKWARD, Range.allOf(stream)).collect(Collectors.toList());
+        assertEquals(3, backward.size());
+        assertEquals(2, backward.get(0).version);
+        assertEquals(101, backward.get(1).position);
+        assertEquals(100, backward.get(2).position);
+
+        assertEquals(100, appender.get(stream, 0).get().position);
+        assertEquals(1, appender.version(stream));
+    }
+
+    @Test
+    public void range_iterator_returns_versions_from_multiple_segments_in_order() {
+        long stream = 123;
+        int versionsPerSegment = 100;
+        int numSegments = 5;
+        int version = 0;
+        for (int segment = 0; segment < numSegments; segment++) {
+            appender.append(IndexEntry.of(stream - 1, segment, 0));
+            for (int i = 0; i < versionsPerSegment; i++) {
+                appender.append(IndexEntry.of(stream, version++, 0));
+            }
+            appender.roll();
+        }
+        appender.flush();
+
+        LogIterator<IndexEntry> iterator = appender.iterator(Direction.FORWARD, Range.of(stream, 50, 250));
+        int expected = 50;
+        while (iterator.hasNext()) {
+            IndexEntry next = iterator.next();
+            assertEquals(stream, next.stream);
+            assertEquals(expected++, next.version);
+        }
+        assertEquals(250, expected);
+    }
+
+    @Test
+    public void range_iterator_of_non_existing_stream_is_empty() {
+        appender.append(IndexEntry.of(1, 0, 0));
+        appender.roll();
+        appender.flush();
+
+        LogIterator<IndexEntry> iterator = appender.iterator(Direction.FORWARD, Range.allOf(2));
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void get_finds_entries_in_every_segment() {
+        int numSegments = 5;
+        for (int segment = 0; segment < numSegments; segment++) {
+            for (int stream = 0; stream < 100; stream++) {
+                appender.append(IndexEntry.of(stream, segment, segment * 100 + stream));
+            }
+            appender.roll();
+        }
+        appender.flush();
+
+        for (int segment = 0; segment < numSegments; segment++) {
+            for (int stream = 0; stream < 100; stream++) {
+                Optional<IndexEntry> found = appender.get(stream, segment);
+                assertTrue(found.isPresent());
+                assertEquals(segment * 100 + stream, found.get().position);
+            }
+        }
+        assertFalse(appender.get(0, numSegments).isPresent());
+        assertFalse(appender.get(100, 0).isPresent());
+    }
+}
@@ -0,0 +1,195 @@
+package io.joshworks.eventry.index.disk;
+
+import io.joshworks.eventry.Utils;
+import io.joshworks.eventry.index.CompactionThrottle;
+import io.joshworks.eventry.index.IndexEntry;
+import io.joshworks.eventry.index.Range;
+import io.joshworks.eventry.index.Tombstones;
+import io.joshworks.fstore.core.Codec;
+import io.joshworks.fstore.core.io.IOUtils;
+import io.joshworks.fstore.core.io.Mode;
+import io.joshworks.fstore.core.io.RafStorage;
+import io.joshworks.fstore.log.Direction;
+import io.joshworks.fstore.log.reader.FixedBufferDataReader;
+import io.joshworks.fstore.log.segment.Type;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IndexCompactorTest {
+
+    private File indexDir;
+    private BlockCache<PackedBlock> blockCache;
+    private final List<IndexSegment> segments = new ArrayList<>();
+    private IndexCompactor compactor;
+
+    @Before
+    public void setUp() {
+        indexDir = Utils.testFolder();
+        blockCache = new BlockCache<>(1024 * 1024, PackedBlock::weight);
+        compactor = new IndexCompactor();
+    }
+
+    @After
+    public void tearDown() {
+        for (IndexSegment segment : segments) {
+            IOUtils.closeQuietly(segment);
+        }
+        Utils.tryDelete(indexDir);
+    }
+
+    private IndexSegment open(String name) {
+        IndexSegment segment = new IndexSegment(
+                new RafStorage(new File(indexDir, name), 1048576, Mode.READ_WRITE),
+                new IndexBlockSerializer(Codec.noCompression()),
+                new FixedBufferDataReader(4096 * 4),
+                "magic",
+                Type.LOG_HEAD,
+                indexDir,
+                1000,
+                blockCache);
+        segments.add(segment);
+        return segment;
+    }
+
+    //same steps as a memtable flush: filter sized by the number of streams, entries sorted by stream and version
+    private IndexSegment flushed(String name, long firstStream, long numStreams, int firstVersion, int versions) {
+        return flushed(name, firstStream, numStreams, firstVersion, versions, numStreams);
+    }
+
+    private IndexSegment flushed(String name, long firstStream, long numStreams, int firstVersion, int versions, long expectedStreams) {
+        IndexSegment segment = open(name);
+        segment.newBloomFilter(expectedStreams);
+        for (long stream = firstStream; stream < firstStream + numStreams; stream++) {
+            for (int version = firstVersion; version < firstVersion + versions; version++) {
+                segment.append(IndexEntry.of(stream, version, 0));
+            }
+        }
+        segment.roll(1);
+        return segment;
+    }
+
+    @Test
+    public void filters_of_segments_with_the_same_streams_are_merged() {
+        //hot streams written on every flush, filters are sized for the same number of streams
+        IndexSegment first = flushed("segment-1", 0, 200, 0, 2);
+        IndexSegment second = flushed("segment-2", 0, 200, 2, 2);
+        IndexSegment output = open("segment-3");
+
+        compactor.merge(Arrays.asList(first, second), output);
+        output.roll(2);
+
+        assertEquals(1, compactor.filtersMerged());
+        assertEquals(800, output.entries());
+        for (long stream = 0; stream < 200; stream++) {
+            assertEquals(3, output.version(stream));
+            assertTrue(output.get(stream, 0).isPresent());
+        }
+    }
+
+    @Test
+    public void filters_of_segments_with_different_sizes_are_folded() {
+        IndexSegment small = flushed("segment-1", 0, 200, 0, 1);
+        //filter sized for more streams than the segment got
+        IndexSegment large = flushed("segment-2", 0, 200, 1, 1, 2000);
+        IndexSegment output = open("segment-3");
+
+        compactor.merge(Arrays.asList(small, large), output);
+        output.roll(2);
+
+        assertEquals(1, compactor.filtersMerged());
+        for (long stream = 0; stream < 200; stream++) {
+            assertTrue(output.get(stream, 1).isPresent());
+        }
+    }
+
+    @Test
+    public void filters_are_rebuilt_when_the_union_is_too_dense() {
+        //disjoint streams, the union would have three times the elements the filters were sized for
+        IndexSegment first = flushed("segment-1", 0, 1000, 0, 1);
+        IndexSegment second = flushed("segment-2", 1000, 1000, 0, 1);
+        IndexSegment third = flushed("segment-3", 2000, 1000, 0, 1);
+        IndexSegment output = open("segment-4");
+
+        compactor.merge(Arrays.asList(first, second, third), output);
+        output.roll(2);
+
+        assertEquals(0, compactor.filtersMerged());
+        for (long stream = 0; stream < 3000; stream++) {
+            assertTrue(output.get(stream, 0).isPresent());
+        }
+    }
+
+    @Test
+    public void entries_of_deleted_and_truncated_streams_are_dropped() {
+        long deleted = 1;
+        long truncated = 2;
+        long recreated = 3;
+        List<IndexEntry> older = new ArrayList<>();
+        for (int version = 0; version < 5; version++) {
+            older.add(IndexEntry.of(deleted, version, version));
+        }
+        for (int version = 0; version < 5; version++) {
+            older.add(IndexEntry.of(truncated, version, 10 + version));
+        }
+        for (int version = 0; version < 3; version++) {
+            older.add(IndexEntry.of(recreated, version, 20 + version));
+        }
+        List<IndexEntry> newer = new ArrayList<>();
+        for (int version = 5; version < 10; version++) {
+            newer.add(IndexEntry.of(truncated, version, 30 + version));
+        }
+        //deleted and created again, versions start over and the tombstone is gone
+        for (int version = 0; version < 2; version++) {
+            newer.add(IndexEntry.of(recreated, version, 40 + version));
+        }
+        IndexSegment first = written("segment-1", older);
+        IndexSegment second = written("segment-2", newer);
+        IndexSegment output = open("segment-3");
+
+        Map<Long, Integer> firstLiveVersions = new HashMap<>();
+        firstLiveVersions.put(deleted, 5); //deleted at version 4
+        firstLiveVersions.put(truncated, 7); //max count 3
+        IndexCompactor withTombstones = new IndexCompactor(CompactionThrottle.unlimited(), () -> new Tombstones(firstLiveVersions));
+        withTombstones.merge(Arrays.asList(first, second), output);
+        output.roll(2);
+
+        assertEquals(12, withTombstones.entriesDropped());
+        assertEquals(6, withTombstones.entriesWritten());
+        assertEquals(IndexEntry.NO_VERSION, output.version(deleted));
+        assertEquals(0, output.stream(Direction.FORWARD, Range.allOf(deleted)).count());
+
+        List<IndexEntry> truncatedEntries = output.stream(Direction.FORWARD, Range.allOf(truncated)).collect(Collectors.toList());
+        assertEquals(3, truncatedEntries.size());
+        assertEquals(7, truncatedEntries.get(0).version);
+        assertEquals(9, truncatedEntries.get(2).version);
+
+        //the recreated versions replace the old ones, the older version above them is still there
+        List<IndexEntry> recreatedEntries = output.stream(Direction.FORWARD, Range.allOf(recreated)).collect(Collectors.toList());
+        assertEquals(3, recreatedEntries.size());
+        assertEquals(40, recreatedEntries.get(0).position);
+        assertEquals(41, recreatedEntries.get(1).position);
+        assertEquals(22, recreatedEntries.get(2).position);
+    }
+
+    private IndexSegment written(String name, List<IndexEntry> entries) {
+        IndexSegment segment = open(name);
+        segment.newBloomFilter(entries.size());
+        for (IndexEntry entry : entries) {
+            segment.append(entry);
+        }
+        segment.roll(1);
+        return segment;
+    }
+}
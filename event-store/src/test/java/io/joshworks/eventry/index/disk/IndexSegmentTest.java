@@ -48,6 +48,10 @@ public class IndexSegmentTest {
     }
 
     public IndexSegment open(File location) {
+        return open(location, false);
+    }
+
+    private IndexSegment open(File location, boolean mmap) {
         long size = location.length() == 0 ? 1048576 : location.length();
         return new IndexSegment(
                 new RafStorage(location, size, Mode.READ_WRITE),
@@ -56,7 +60,34 @@ public class IndexSegmentTest {
                 "magic",
                 Type.LOG_HEAD,
                 indexDir,
-                NUMBER_OF_ELEMENTS);
+                NUMBER_OF_ELEMENTS,
+                new BlockCache<>(1024 * 1024, PackedBlock::weight),
+                mmap);
+    }
+
+    @Test
+    public void blocks_of_a_sealed_segment_are_read_from_the_mapping() {
+        segment.close();
+        segment = open(segmentFile, true);
+        for (int stream = 0; stream < 1000; stream++) {
+            segment.append(IndexEntry.of(stream, 0, stream));
+        }
+        segment.roll(1);
+
+        for (int stream = 0; stream < 1000; stream++) {
+            Optional<IndexEntry> found = segment.get(stream, 0);
+            assertTrue(found.isPresent());
+            assertEquals(stream, found.get().position);
+        }
+        assertTrue(segment.mappedBlockReads() > 0);
+    }
+
+    @Test
+    public void blocks_are_read_from_the_storage_without_mmap() {
+        indexWithStreamRanging(0, 1000);
+
+        assertTrue(segment.get(500, 0).isPresent());
+        assertEquals(0, segment.mappedBlockReads());
     }
 
     @Test
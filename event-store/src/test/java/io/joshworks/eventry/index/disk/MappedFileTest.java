@@ -0,0 +1,67 @@
+package io.joshworks.eventry.index.disk;
+
+import io.joshworks.eventry.Utils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappedFileTest {
+
+    private File testFolder;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        testFolder = Utils.testFolder();
+        file = new File(testFolder, "segment.idx");
+        ByteBuffer data = ByteBuffer.allocate(16);
+        data.putInt(8).putInt(0).putLong(123L);
+        Files.write(file.toPath(), data.array());
+    }
+
+    @After
+    public void tearDown() {
+        Utils.tryDelete(testFolder);
+    }
+
+    @Test
+    public void slice_reads_the_file_content() throws IOException {
+        MappedFile mapped = MappedFile.map(file);
+        assertTrue(mapped.acquire());
+        assertEquals(16, mapped.size());
+        assertEquals(8, mapped.getInt(0));
+        ByteBuffer slice = mapped.slice(8, 8);
+        assertEquals(8, slice.remaining());
+        assertEquals(123L, slice.getLong());
+        mapped.release();
+        mapped.close();
+    }
+
+    @Test
+    public void cannot_acquire_after_close() throws IOException {
+        MappedFile mapped = MappedFile.map(file);
+        mapped.close();
+        assertFalse(mapped.acquire());
+    }
+
+    @Test
+    public void reader_can_use_mapping_until_release_after_close() throws IOException {
+        MappedFile mapped = MappedFile.map(file);
+        assertTrue(mapped.acquire());
+        mapped.close();
+        mapped.close();
+
+        assertEquals(8, mapped.getInt(0));
+        mapped.release();
+        assertFalse(mapped.acquire());
+    }
+}
@@ -0,0 +1,81 @@
+package io.joshworks.eventry.index.disk;
+
+import io.joshworks.eventry.index.IndexEntry;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class PackedBlockTest {
+
+    @Test
+    public void position_of_contiguous_versions() {
+        PackedBlock block = PackedBlock.of(pack(new long[]{1, 2, 3}, new int[][]{{0, 1, 2}, {5, 6}, {0}}));
+
+        assertEquals(100, block.position(1, 0));
+        assertEquals(102, block.position(1, 2));
+        assertEquals(206, block.position(2, 6));
+        assertEquals(300, block.position(3, 0));
+    }
+
+    @Test
+    public void position_with_version_gaps() {
+        PackedBlock block = PackedBlock.of(pack(new long[]{1}, new int[][]{{0, 3, 7, 8, 20}}));
+
+        assertEquals(107, block.position(1, 7));
+        assertEquals(120, block.position(1, 20));
+        assertEquals(-1, block.position(1, 5));
+    }
+
+    @Test
+    public void missing_entries_return_minus_one() {
+        PackedBlock block = PackedBlock.of(pack(new long[]{1, 3}, new int[][]{{0, 1}, {0}}));
+
+        assertEquals(-1, block.position(2, 0));
+        assertEquals(-1, block.position(1, 2));
+        assertEquals(-1, block.position(0, 0));
+        assertEquals(-1, block.position(4, 0));
+    }
+
+    @Test
+    public void lastVersion_returns_highest_version_of_stream() {
+        PackedBlock block = PackedBlock.of(pack(new long[]{-5, 1, 2}, new int[][]{{4}, {0, 1, 9}, {3}}));
+
+        assertEquals(4, block.lastVersion(-5));
+        assertEquals(9, block.lastVersion(1));
+        assertEquals(3, block.lastVersion(2));
+        assertEquals(IndexEntry.NO_VERSION, block.lastVersion(7));
+    }
+
+    @Test
+    public void works_on_direct_buffers_with_offset() {
+        ByteBuffer heap = pack(new long[]{1, 2}, new int[][]{{0, 1}, {0}});
+        ByteBuffer direct = ByteBuffer.allocateDirect(heap.remaining() + 10);
+        direct.position(10);
+        direct.put(heap);
+        direct.position(10);
+
+        PackedBlock block = PackedBlock.of(direct);
+        assertEquals(101, block.position(1, 1));
+        assertEquals(200, block.position(2, 0));
+    }
+
+    //position = stream * 100 + version
+    private static ByteBuffer pack(long[] streams, int[][] versions) {
+        int size = 0;
+        for (int[] streamVersions : versions) {
+            size += PackedBlock.HEADER_BYTES + streamVersions.length * PackedBlock.ENTRY_BYTES;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < streams.length; i++) {
+            buffer.putLong(streams[i]);
+            buffer.putInt(versions[i].length);
+            for (int version : versions[i]) {
+                buffer.putInt(version);
+                buffer.putLong(Math.abs(streams[i]) * 100 + version);
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,135 @@
+package io.joshworks.eventry.index.disk;
+
+import io.joshworks.eventry.Utils;
+import io.joshworks.eventry.index.IndexEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StreamDirectoryTest {
+
+    private File testFolder;
+    private StreamDirectory directory;
+
+    @Before
+    public void setUp() {
+        testFolder = Utils.testFolder();
+        directory = new StreamDirectory(testFolder, "segment");
+    }
+
+    @After
+    public void tearDown() {
+        Utils.tryDelete(testFolder);
+    }
+
+    @Test
+    public void summary_of_each_stream() {
+        directory.add(1, 0, 0);
+        directory.add(1, 1, 0);
+        directory.add(1, 2, 100);
+        directory.add(5, 3, 100);
+
+        assertEquals(2, directory.size());
+
+        int idx = directory.indexOf(1);
+        assertEquals(0, directory.firstBlockAt(idx));
+        assertEquals(0, directory.firstVersionAt(idx));
+        assertEquals(2, directory.lastVersionAt(idx));
+        assertEquals(3, directory.entriesAt(idx));
+
+        idx = directory.indexOf(5);
+        assertEquals(100, directory.firstBlockAt(idx));
+        assertEquals(3, directory.firstVersionAt(idx));
+        assertEquals(3, directory.lastVersionAt(idx));
+        assertEquals(1, directory.entriesAt(idx));
+    }
+
+    @Test
+    public void lastVersion_of_missing_stream() {
+        directory.add(1, 0, 0);
+        directory.add(3, 0, 0);
+
+        assertEquals(IndexEntry.NO_VERSION, directory.lastVersion(0));
+        assertEquals(IndexEntry.NO_VERSION, directory.lastVersion(2));
+        assertEquals(IndexEntry.NO_VERSION, directory.lastVersion(4));
+        assertEquals(-1, directory.indexOf(2));
+    }
+
+    @Test
+    public void lastVersion_of_empty_directory() {
+        assertEquals(IndexEntry.NO_VERSION, directory.lastVersion(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void streams_must_be_added_in_order() {
+        directory.add(2, 0, 0);
+        directory.add(1, 0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void versions_must_be_added_in_order() {
+        directory.add(1, 1, 0);
+        directory.add(1, 0, 0);
+    }
+
+    @Test
+    public void loaded_directory_is_the_same_as_written() {
+        for (int stream = 0; stream < 10000; stream++) {
+            for (int version = 0; version < 3; version++) {
+                directory.add(stream, version, stream * 10L);
+            }
+        }
+        directory.write();
+
+        StreamDirectory loaded = new StreamDirectory(testFolder, "segment");
+        assertTrue(loaded.existed());
+        assertEquals(10000, loaded.size());
+        for (int stream = 0; stream < 10000; stream++) {
+            int idx = loaded.indexOf(stream);
+            assertEquals(2, loaded.lastVersionAt(idx));
+            assertEquals(stream * 10L, loaded.firstBlockAt(idx));
+            assertEquals(3, loaded.entriesAt(idx));
+        }
+    }
+
+    @Test
+    public void incremental_writes_update_the_last_stream() {
+        directory.add(1, 0, 0);
+        directory.write();
+        directory.add(1, 1, 0);
+        directory.add(2, 0, 100);
+        directory.write();
+
+        StreamDirectory loaded = new StreamDirectory(testFolder, "segment");
+        assertEquals(2, loaded.size());
+        assertEquals(1, loaded.lastVersion(1));
+        assertEquals(2, loaded.entriesAt(loaded.indexOf(1)));
+        assertEquals(0, loaded.lastVersion(2));
+    }
+
+    @Test
+    public void loaded_directory_can_be_appended() {
+        directory.add(1, 0, 0);
+        directory.write();
+
+        StreamDirectory loaded = new StreamDirectory(testFolder, "segment");
+        loaded.add(1, 1, 0);
+        loaded.add(2, 0, 100);
+        loaded.write();
+
+        StreamDirectory reloaded = new StreamDirectory(testFolder, "segment");
+        assertEquals(1, reloaded.lastVersion(1));
+        assertEquals(0, reloaded.lastVersion(2));
+    }
+
+    @Test
+    public void new_directory_did_not_exist() {
+        assertFalse(directory.existed());
+    }
+}
@@ -1,13 +1,14 @@
 package io.joshworks.eventry.index.filter;
 
 import io.joshworks.eventry.Utils;
-import io.joshworks.fstore.serializer.Serializers;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -16,7 +17,7 @@ import static org.junit.Assert.assertTrue;
 public class BloomFilterTest {
 
     private File testFolder;
-    private BloomFilter<Long> filter;
+    private BloomFilter filter;
 
 
     @Before
@@ -31,8 +32,8 @@ public class BloomFilterTest {
         Utils.tryDelete(testFolder);
     }
 
-    private BloomFilter<Long> openFilter() {
-        return BloomFilter.openOrCreate(testFolder, "segmentA", 100, 0.01, BloomFilterHasher.Murmur64(Serializers.LONG));
+    private BloomFilter openFilter() {
+        return BloomFilter.openOrCreate(testFolder, "segmentA", 100, 0.01);
     }
 
     @Test
@@ -49,17 +50,216 @@ public class BloomFilterTest {
 
         filter.write();
 
-        BloomFilter<Long> loaded = openFilter();
+        BloomFilter loaded = openFilter();
 
-        assertEquals(filter.hashes, loaded.hashes);
-        assertEquals(filter.hashes.size(), loaded.hashes.size());
-        assertEquals(filter.hashes.length(), loaded.hashes.length());
-        assertEquals(filter.hashes.hashCode(), loaded.hashes.hashCode());
-        assertTrue(Arrays.equals(filter.hashes.toByteArray(), loaded.hashes.toByteArray()));
+        assertEquals(filter, loaded);
+        assertEquals(filter.words.capacity(), loaded.words.capacity());
+        assertEquals(filter.hashCode(), loaded.hashCode());
 
         assertTrue(loaded.contains(1L));
         assertFalse(loaded.contains(2L));
     }
 
+    @Test
+    public void false_positive_rate_is_close_to_the_expected() {
+        BloomFilter large = BloomFilter.openOrCreate(testFolder, "segmentB", 100000, 0.01);
+        for (long i = 0; i < 100000; i++) {
+            large.add(i);
+        }
+        for (long i = 0; i < 100000; i++) {
+            assertTrue(large.contains(i));
+        }
+        int falsePositives = 0;
+        for (long i = 100000; i < 200000; i++) {
+            if (large.contains(i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < 2000);
+    }
+
+    @Test
+    public void changes_to_a_loaded_filter_are_persisted() {
+        filter.add(1L);
+        filter.write();
+
+        BloomFilter loaded = openFilter();
+        loaded.add(2L);
+        loaded.write();
+
+        BloomFilter reloaded = openFilter();
+        assertTrue(reloaded.contains(1L));
+        assertTrue(reloaded.contains(2L));
+    }
+
+    @Test
+    public void changes_to_a_written_filter_are_persisted() {
+        filter.add(1L);
+        filter.write();
+        filter.add(2L);
+        filter.write();
+
+        BloomFilter loaded = openFilter();
+        assertTrue(loaded.contains(1L));
+        assertTrue(loaded.contains(2L));
+    }
+
+    @Test
+    public void only_changed_blocks_are_rewritten() throws Exception {
+        BloomFilter large = BloomFilter.openOrCreate(testFolder, "segmentD", 100000, 0.01);
+        large.add(1L);
+        large.write();
+
+        //wipe the data on disk, anything not rewritten stays empty
+        File file = new File(testFolder, "segmentD.ftr");
+        byte[] content = Files.readAllBytes(file.toPath());
+        Arrays.fill(content, 16, content.length, (byte) 0);
+        Files.write(file.toPath(), content);
+
+        large.add(2L);
+        large.write();
+
+        BloomFilter loaded = BloomFilter.openOrCreate(testFolder, "segmentD", 100000, 0.01);
+        assertTrue(loaded.contains(2L));
+        assertFalse(loaded.contains(1L));
+    }
+
+    @Test
+    public void contains_does_not_wait_for_the_monitor() throws Exception {
+        filter.add(1L);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        //holds the monitor the way a write copying the blocks does
+        Thread holder = new Thread(() -> {
+            synchronized (filter) {
+                locked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        holder.start();
+        try {
+            locked.await();
+            assertTrue(filter.contains(1L));
+            assertFalse(filter.contains(2L));
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+    }
+
+    @Test
+    public void blocks_changed_after_a_write_are_written_next_time() {
+        filter.add(1L);
+        filter.write();
+        filter.add(2L);
+        filter.write();
+        filter.write(); //nothing changed
+
+        BloomFilter loaded = openFilter();
+        assertTrue(loaded.contains(1L));
+        assertTrue(loaded.contains(2L));
+    }
+
+    @Test
+    public void filter_with_old_format_is_not_loaded() throws Exception {
+        Files.write(new File(testFolder, "segmentC.ftr").toPath(), new byte[]{0, 0, 0, 8, 0, 0, 0, 64, 0, 0, 0, 3, 1, 2, 3, 4, 5, 6, 7, 8});
+        assertFalse(BloomFilter.exists(testFolder, "segmentC"));
 
-}
\ No newline at end of file
+        BloomFilter created = BloomFilter.openOrCreate(testFolder, "segmentC", 100, 0.01);
+        assertFalse(created.contains(1L));
+    }
+
+    @Test
+    public void merge() {
+        BloomFilter other = BloomFilter.openOrCreate(testFolder, "segmentB", 100, 0.01);
+        filter.add(1L);
+        other.add(2L);
+
+        filter.merge(other);
+
+        assertTrue(filter.contains(1L));
+        assertTrue(filter.contains(2L));
+    }
+
+    @Test
+    public void estimatedElements_is_close_to_the_number_of_distinct_elements() {
+        BloomFilter large = BloomFilter.openOrCreate(testFolder, "segmentB", 100000, 0.01);
+        for (long i = 0; i < 50000; i++) {
+            large.add(i);
+            large.add(i);
+        }
+        long estimated = large.estimatedElements();
+        assertTrue("Estimated: " + estimated, estimated > 48000 && estimated < 52000);
+    }
+
+    @Test
+    public void estimatedElements_of_empty_filter() {
+        assertEquals(0, filter.estimatedElements());
+    }
+
+    @Test
+    public void union_contains_the_elements_of_all_filters() {
+        BloomFilter other = BloomFilter.openOrCreate(testFolder, "segmentB", 100, 0.01);
+        filter.add(1L);
+        other.add(2L);
+
+        BloomFilter union = BloomFilter.union(testFolder, "segmentC", Arrays.asList(filter, other));
+
+        assertTrue(union.contains(1L));
+        assertTrue(union.contains(2L));
+        assertTrue(union.compatibleWith(filter));
+        assertFalse(filter.contains(2L));
+    }
+
+    @Test
+    public void union_is_persisted() {
+        filter.add(1L);
+        BloomFilter union = BloomFilter.union(testFolder, "segmentC", Arrays.asList(filter));
+        union.write();
+
+        BloomFilter loaded = BloomFilter.openOrCreate(testFolder, "segmentC", 100, 0.01);
+        assertEquals(union, loaded);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void union_of_incompatible_filters() {
+        BloomFilter other = BloomFilter.openOrCreate(testFolder, "segmentB", 100, 0.0001);
+        BloomFilter.union(testFolder, "segmentC", Arrays.asList(filter, other));
+    }
+
+    @Test
+    public void union_folds_larger_filters_into_the_smallest() {
+        BloomFilter large = BloomFilter.openOrCreate(testFolder, "segmentB", 100000, 0.01);
+        for (long i = 0; i < 50; i++) {
+            filter.add(i);
+            large.add(i + 1000);
+        }
+        assertTrue(filter.compatibleWith(large));
+
+        BloomFilter union = BloomFilter.union(testFolder, "segmentC", Arrays.asList(large, filter));
+
+        assertEquals(filter.words.capacity(), union.words.capacity());
+        for (long i = 0; i < 50; i++) {
+            assertTrue(union.contains(i));
+            assertTrue(union.contains(i + 1000));
+        }
+    }
+
+    @Test
+    public void falsePositiveProbability_grows_with_elements() {
+        assertEquals(0, filter.falsePositiveProbability(), 0);
+        for (long i = 0; i < 100; i++) {
+            filter.add(i);
+        }
+        double full = filter.falsePositiveProbability();
+        assertTrue("Probability: " + full, full > 0.001 && full < 0.03);
+        for (long i = 100; i < 400; i++) {
+            filter.add(i);
+        }
+        assertTrue(filter.falsePositiveProbability() > full);
+    }
+}
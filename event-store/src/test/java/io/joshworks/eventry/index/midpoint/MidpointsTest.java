@@ -1,15 +1,17 @@
 package io.joshworks.eventry.index.midpoint;
 
+import io.joshworks.eventry.Utils;
 import io.joshworks.eventry.index.IndexEntry;
+import io.joshworks.eventry.index.Range;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
-import java.nio.file.Files;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class MidpointsTest {
@@ -19,14 +21,14 @@ public class MidpointsTest {
     private Midpoints midpoints;
 
     @Before
-    public void setUp() throws Exception {
-        location = Files.createTempFile(null, null).toFile();
+    public void setUp() {
+        location = Utils.testFolder();
         midpoints = new Midpoints(location, "test");
     }
 
     @After
-    public void tearDown() throws Exception {
-        Files.deleteIfExists(location.toPath());
+    public void tearDown() {
+        Utils.tryDelete(location);
     }
 
     @Test
@@ -66,16 +68,16 @@ public class MidpointsTest {
 
     @Test
     public void mark_as_dirty_when_first_pair_of_midpoins_is_added() {
-        assertFalse(midpoints.dirty);
+        assertFalse(midpoints.dirty());
         midpoints.add(midpoint(1, 1), midpoint(1,2));
-        assertTrue(midpoints.dirty);
+        assertTrue(midpoints.dirty());
     }
 
     @Test
     public void mark_as_dirty_when_first_midpoin_is_added() {
-        assertFalse(midpoints.dirty);
+        assertFalse(midpoints.dirty());
         midpoints.add(midpoint(1, 1));
-        assertTrue(midpoints.dirty);
+        assertTrue(midpoints.dirty());
     }
 
     private Midpoint midpoint(long stream, int version) {
@@ -87,38 +89,102 @@ public class MidpointsTest {
     }
 
     @Test
-    public void add() {
+    public void block_pair_replaces_the_previous_block_end() {
+        midpoints.add(midpoint(1, 0, 0, 0), midpoint(1, 9, 0, 0));
+        midpoints.add(midpoint(1, 10, 0, 100), midpoint(1, 19, 0, 100));
+
+        assertEquals(3, midpoints.size());
+        assertEquals(IndexEntry.of(1, 0, 0), midpoints.first());
+        assertEquals(IndexEntry.of(1, 19, 0), midpoints.last());
+        assertEquals(0, midpoints.blockPosition(1, 9));
+        assertEquals(100, midpoints.blockPosition(1, 10));
+        assertEquals(100, midpoints.blockPosition(1, 50));
     }
 
     @Test
-    public void write() {
+    public void blockPosition_returns_first_block_for_keys_before_the_first_midpoint() {
+        midpoints.add(midpoint(5, 0, 0, 0), midpoint(5, 9, 0, 0));
+        midpoints.add(midpoint(6, 0, 0, 100), midpoint(6, 9, 0, 100));
+
+        assertEquals(0, midpoints.blockPosition(1, 0));
     }
 
     @Test
-    public void getMidpointIdx() {
+    public void blockPosition_of_empty_midpoints() {
+        assertEquals(-1, midpoints.blockPosition(1, 0));
+        assertNull(midpoints.getMidpointFor(IndexEntry.of(1, 0, 0)));
     }
 
     @Test
-    public void getMidpointFor() {
+    public void loaded_midpoints_are_the_same_as_written() {
+        for (int i = 0; i < 1000; i++) {
+            midpoints.add(midpoint(i, 0, i, i * 10L), midpoint(i, 1, i, i * 10L));
+        }
+        midpoints.write();
+
+        Midpoints loaded = new Midpoints(location, "test");
+        assertEquals(midpoints.size(), loaded.size());
+        assertEquals(midpoints.first(), loaded.first());
+        assertEquals(midpoints.last(), loaded.last());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i * 10L, loaded.blockPosition(i, 0));
+        }
     }
 
     @Test
-    public void delete() {
+    public void write_only_appends_the_new_midpoints() {
+        midpoints.add(midpoint(1, 0, 0, 0), midpoint(1, 9, 0, 0));
+        midpoints.write();
+        assertFalse(midpoints.dirty());
+
+        midpoints.add(midpoint(2, 0, 0, 100), midpoint(2, 9, 0, 100));
+        midpoints.write();
+
+        Midpoints loaded = new Midpoints(location, "test");
+        assertEquals(3, loaded.size());
+        assertEquals(0, loaded.blockPosition(1, 9));
+        assertEquals(100, loaded.blockPosition(2, 0));
+        assertEquals(IndexEntry.of(2, 9, 0), loaded.last());
     }
 
     @Test
-    public void inRange() {
+    public void loaded_midpoints_can_be_appended() {
+        midpoints.add(midpoint(1, 0, 0, 0), midpoint(1, 9, 0, 0));
+        midpoints.write();
+
+        Midpoints loaded = new Midpoints(location, "test");
+        loaded.add(midpoint(2, 0, 0, 100), midpoint(2, 9, 0, 100));
+        loaded.write();
+
+        Midpoints reloaded = new Midpoints(location, "test");
+        assertEquals(3, reloaded.size());
+        assertEquals(100, reloaded.blockPosition(2, 5));
     }
 
     @Test
-    public void size() {
+    public void inRange() {
+        midpoints.add(midpoint(5, 10, 0, 0), midpoint(5, 20, 0, 0));
+
+        assertTrue(midpoints.inRange(Range.of(5, 0, 11)));
+        assertTrue(midpoints.inRange(Range.of(5, 20)));
+        assertTrue(midpoints.inRange(Range.allOf(5)));
+        assertFalse(midpoints.inRange(Range.of(5, 21)));
+        assertFalse(midpoints.inRange(Range.of(5, 0, 9)));
+        assertFalse(midpoints.inRange(Range.allOf(4)));
+        assertFalse(midpoints.inRange(Range.allOf(6)));
     }
 
     @Test
-    public void first() {
+    public void delete() {
+        midpoints.add(midpoint(1, 0, 0, 0), midpoint(1, 9, 0, 0));
+        midpoints.write();
+        assertTrue(new File(location, "test.mdp").exists());
+
+        midpoints.delete();
+        assertFalse(new File(location, "test.mdp").exists());
     }
 
-    @Test
-    public void last() {
+    private Midpoint midpoint(long stream, int version, long pos, long blockPos) {
+        return new Midpoint(IndexEntry.of(stream, version, pos), blockPos);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,134 @@
+package io.joshworks.eventry.log;
+
+import io.joshworks.eventry.Utils;
+import io.joshworks.eventry.stream.StreamMetadata;
+import io.joshworks.eventry.stream.Streams;
+import io.joshworks.fstore.core.io.IOUtils;
+import io.joshworks.fstore.core.io.Mode;
+import io.joshworks.fstore.core.io.RafStorage;
+import io.joshworks.fstore.log.Direction;
+import io.joshworks.fstore.log.reader.FixedBufferDataReader;
+import io.joshworks.fstore.log.segment.Log;
+import io.joshworks.fstore.log.segment.Segment;
+import io.joshworks.fstore.log.segment.Type;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecordCleanupTest {
+
+    private File testFolder;
+    private final List<Log<EventRecord>> segments = new ArrayList<>();
+    private final Map<Long, Integer> indexVersions = new HashMap<>();
+    private Streams streams;
+    private RecordCleanup cleanup;
+
+    @Before
+    public void setUp() {
+        testFolder = Utils.testFolder();
+        streams = new Streams(10, hash -> indexVersions.getOrDefault(hash, -1));
+        cleanup = new RecordCleanup(streams);
+    }
+
+    @After
+    public void tearDown() {
+        for (Log<EventRecord> segment : segments) {
+            IOUtils.closeQuietly(segment);
+        }
+        IOUtils.closeQuietly(streams);
+        Utils.tryDelete(testFolder);
+    }
+
+    private Log<EventRecord> open(String name) {
+        Log<EventRecord> segment = new Segment<>(
+                new RafStorage(new File(testFolder, name), 1048576, Mode.READ_WRITE),
+                new EventSerializer(),
+                new FixedBufferDataReader(4096),
+                "magic",
+                Type.LOG_HEAD);
+        segments.add(segment);
+        return segment;
+    }
+
+    private void create(String stream, long maxAge, int maxCount) {
+        streams.create(new StreamMetadata(stream, streams.hashOf(stream), System.currentTimeMillis(), maxAge, maxCount, new HashMap<>(), new HashMap<>()));
+    }
+
+    private static EventRecord record(String stream, int version, long timestamp) {
+        return new EventRecord(stream, "type", version, timestamp, new byte[10], new byte[0]);
+    }
+
+    @Test
+    public void records_of_dead_streams_are_not_copied() {
+        long now = System.currentTimeMillis();
+        create("kept", -1, -1);
+        create("deleted", -1, -1);
+        create("truncated", -1, 2);
+        create("expired", 60_000, -1);
+        indexVersions.put(streams.hashOf("truncated"), 4); //versions 3 and 4 are in the max count window
+        streams.delete(streams.hashOf("deleted"), 2);
+
+        Log<EventRecord> source = open("segment-1");
+        for (int version = 0; version < 3; version++) {
+            source.append(record("kept", version, now));
+            source.append(record("deleted", version, now));
+        }
+        for (int version = 0; version < 5; version++) {
+            source.append(record("truncated", version, now));
+        }
+        source.append(record("expired", 0, now - 120_000));
+        source.append(record("expired", 1, now));
+        source.roll(1);
+
+        Log<EventRecord> output = open("segment-2");
+        cleanup.merge(Collections.singletonList(source), output);
+        output.roll(2);
+
+        assertEquals(6, cleanup.recordsKept());
+        assertEquals(7, cleanup.recordsDropped());
+        assertEquals(6, output.entries());
+
+        List<String> copied = output.stream(Direction.FORWARD).map(EventRecord::eventId).collect(Collectors.toList());
+        assertEquals(6, copied.size());
+        assertTrue(copied.contains("truncated@3"));
+        assertTrue(copied.contains("expired@1"));
+        assertFalse(copied.contains("deleted@0"));
+        assertFalse(copied.contains("truncated@2"));
+        assertFalse(copied.contains("expired@0"));
+    }
+
+    @Test
+    public void records_of_all_segments_are_copied_in_order() {
+        long now = System.currentTimeMillis();
+        create("stream", -1, -1);
+        Log<EventRecord> first = open("segment-1");
+        Log<EventRecord> second = open("segment-2");
+        for (int version = 0; version < 3; version++) {
+            first.append(record("stream", version, now));
+            second.append(record("stream", version + 3, now));
+        }
+        first.roll(1);
+        second.roll(1);
+
+        Log<EventRecord> output = open("segment-3");
+        cleanup.merge(Arrays.asList(first, second), output);
+        output.roll(2);
+
+        assertEquals(0, cleanup.recordsDropped());
+        List<Integer> versions = output.stream(Direction.FORWARD).map(record -> record.version).collect(Collectors.toList());
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), versions);
+    }
+}
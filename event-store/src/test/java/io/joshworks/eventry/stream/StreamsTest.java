@@ -1,9 +1,12 @@
 package io.joshworks.eventry.stream;
 
+import io.joshworks.eventry.index.Tombstones;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
@@ -68,4 +71,75 @@ public class StreamsTest {
         int version2 = streams.tryIncrementVersion(123, 1);
         assertEquals(2, version2);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void version_reads_go_to_the_index_on_miss_without_caching() {
+        Map<Long, Integer> indexed = new HashMap<>();
+        indexed.put(1L, 4);
+        try (Streams withIndex = new Streams(10, hash -> indexed.getOrDefault(hash, -1))) {
+            assertEquals(4, withIndex.version(1));
+            assertEquals(0, withIndex.versionStats().size);
+
+            assertEquals(5, withIndex.tryIncrementVersion(1, 4));
+            assertEquals(5, withIndex.version(1)); //not in the index yet
+        }
+    }
+
+    @Test
+    public void deleted_stream_entries_are_tombstoned() {
+        streams.create(new StreamMetadata("a", 1, 0));
+        streams.delete(1, 9);
+
+        Tombstones tombstones = streams.tombstones();
+        assertEquals(10, tombstones.firstLiveVersion(1));
+        assertEquals(0, tombstones.firstLiveVersion(2));
+    }
+
+    @Test
+    public void recreated_stream_is_not_tombstoned() {
+        streams.create(new StreamMetadata("a", 1, 0));
+        streams.delete(1, 9);
+        streams.create(new StreamMetadata("a", 1, 0));
+
+        assertTrue(streams.tombstones().isEmpty());
+    }
+
+    @Test
+    public void entries_out_of_max_count_are_tombstoned() {
+        Map<Long, Integer> indexed = new HashMap<>();
+        try (Streams withIndex = new Streams(10, hash -> indexed.getOrDefault(hash, -1))) {
+            withIndex.create(new StreamMetadata("a", 1, 0, -1, 3, new HashMap<>(), new HashMap<>()));
+            indexed.put(1L, 9);
+            //versions 0 - 9, the last three are alive
+            assertEquals(7, withIndex.tombstones().firstLiveVersion(1));
+        }
+    }
+
+    @Test
+    public void stream_within_max_count_is_not_tombstoned() {
+        Map<Long, Integer> indexed = new HashMap<>();
+        try (Streams withIndex = new Streams(10, hash -> indexed.getOrDefault(hash, -1))) {
+            withIndex.create(new StreamMetadata("a", 1, 0, -1, 3, new HashMap<>(), new HashMap<>()));
+            indexed.put(1L, 0);
+            assertTrue(withIndex.tombstones().isEmpty());
+        }
+    }
+
+    @Test
+    public void tombstones_do_not_load_versions_into_the_version_table() {
+        Map<Long, Integer> indexed = new HashMap<>();
+        try (Streams withIndex = new Streams(10, hash -> indexed.getOrDefault(hash, -1))) {
+            for (long hash = 1; hash <= 5; hash++) {
+                withIndex.create(new StreamMetadata("stream-" + hash, hash, 0, -1, 3, new HashMap<>(), new HashMap<>()));
+                indexed.put(hash, 9);
+            }
+            int cached = withIndex.versionStats().size;
+            long misses = withIndex.versionStats().misses;
+
+            assertEquals(5, withIndex.tombstones().size());
+
+            assertEquals(cached, withIndex.versionStats().size);
+            assertEquals(misses, withIndex.versionStats().misses);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package io.joshworks.eventry.stream;
+
+import io.joshworks.eventry.index.IndexEntry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VersionTableTest {
+
+    @Test
+    public void version_is_loaded_once_and_then_served_from_memory() {
+        AtomicInteger loads = new AtomicInteger();
+        VersionTable table = new VersionTable(100, stream -> {
+            loads.incrementAndGet();
+            return 5;
+        });
+
+        assertEquals(5, table.version(1));
+        assertEquals(5, table.version(1));
+        assertEquals(1, loads.get());
+
+        VersionTable.Stats stats = table.stats();
+        assertEquals(1, stats.hits);
+        assertEquals(1, stats.misses);
+    }
+
+    @Test
+    public void tryIncrement_with_any_version() {
+        VersionTable table = new VersionTable(100, stream -> IndexEntry.NO_VERSION);
+        assertEquals(0, table.tryIncrement(1, IndexEntry.NO_VERSION));
+        assertEquals(1, table.tryIncrement(1, IndexEntry.NO_VERSION));
+        assertEquals(1, table.version(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tryIncrement_fails_on_version_mismatch() {
+        VersionTable table = new VersionTable(100, stream -> 3);
+        table.tryIncrement(1, 2);
+    }
+
+    @Test
+    public void size_is_bounded_by_capacity() {
+        int capacity = 1000;
+        VersionTable table = new VersionTable(capacity, stream -> 0);
+        for (int i = 0; i < capacity * 10; i++) {
+            table.version(i);
+        }
+        assertTrue(table.size() <= capacity);
+        assertEquals(capacity * 10 - table.size(), table.stats().evictions);
+    }
+
+    @Test
+    public void frequently_used_streams_survive_a_scan() {
+        AtomicInteger loads = new AtomicInteger();
+        VersionTable table = new VersionTable(16, stream -> {
+            loads.incrementAndGet();
+            return 0;
+        });
+        //second access promotes to the protected segment
+        for (int i = 0; i < 2; i++) {
+            for (long stream = 0; stream < 4; stream++) {
+                table.version(stream);
+            }
+        }
+        for (long stream = 1000; stream < 2000; stream++) {
+            table.version(stream);
+        }
+
+        int before = loads.get();
+        for (long stream = 0; stream < 4; stream++) {
+            table.version(stream);
+        }
+        assertEquals(before, loads.get());
+    }
+
+    @Test
+    public void set_overrides_loaded_version() {
+        VersionTable table = new VersionTable(100, stream -> 10);
+        table.set(1, IndexEntry.NO_VERSION);
+        assertEquals(IndexEntry.NO_VERSION, table.version(1));
+    }
+
+    @Test
+    public void removed_stream_is_loaded_again() {
+        AtomicInteger loads = new AtomicInteger();
+        VersionTable table = new VersionTable(100, stream -> loads.incrementAndGet());
+        assertEquals(1, table.version(1));
+        table.remove(1);
+        assertEquals(2, table.version(1));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void cached_version_does_not_load_or_insert() {
+        AtomicInteger loads = new AtomicInteger();
+        VersionTable table = new VersionTable(100, stream -> loads.incrementAndGet());
+        assertEquals(VersionTable.NOT_CACHED, table.cachedVersion(1));
+        assertEquals(0, loads.get());
+        assertEquals(0, table.size());
+
+        table.tryIncrement(1, IndexEntry.NO_VERSION);
+        assertEquals(2, table.cachedVersion(1));
+    }
+
+    @Test
+    public void readers_do_not_evict_the_streams_being_written() {
+        VersionTable table = new VersionTable(16, stream -> IndexEntry.NO_VERSION);
+        for (int i = 0; i < 10; i++) {
+            table.tryIncrement(1, IndexEntry.NO_VERSION);
+        }
+        for (long stream = 1000; stream < 2000; stream++) {
+            table.cachedVersion(stream);
+        }
+        assertEquals(10, table.tryIncrement(1, 9));
+    }
+
+        @Test
+    public void concurrent_increments_are_not_lost() throws Exception {
+        VersionTable table = new VersionTable(1000, stream -> IndexEntry.NO_VERSION);
+        int threads = 8;
+        int increments = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < increments; i++) {
+                        table.tryIncrement(i % 100, IndexEntry.NO_VERSION);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (long stream = 0; stream < 100; stream++) {
+            assertEquals(threads * increments / 100 - 1, table.version(stream));
+        }
+    }
+}
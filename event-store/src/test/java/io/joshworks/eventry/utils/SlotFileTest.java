@@ -0,0 +1,89 @@
+package io.joshworks.eventry.utils;
+
+import io.joshworks.eventry.Utils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SlotFileTest {
+
+    private File testFolder;
+    private File handler;
+
+    @Before
+    public void setUp() {
+        testFolder = Utils.testFolder();
+        handler = new File(testFolder, "slots.dat");
+    }
+
+    @After
+    public void tearDown() {
+        Utils.tryDelete(testFolder);
+    }
+
+    private static void append(SlotFile slots, long value) {
+        int size = slots.size();
+        slots.writable(size + 1).putLong(size * Long.BYTES, value);
+        slots.markDirty(size);
+        slots.publish(size + 1);
+    }
+
+    @Test
+    public void grows_past_the_initial_capacity() {
+        SlotFile slots = new SlotFile(handler, Long.BYTES, 2);
+        for (long i = 0; i < 100; i++) {
+            append(slots, i);
+        }
+        assertEquals(100, slots.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, slots.buffer().getLong(i * Long.BYTES));
+        }
+    }
+
+    @Test
+    public void loaded_slots_are_copied_before_changing() {
+        SlotFile slots = new SlotFile(handler, Long.BYTES, 2);
+        append(slots, 1);
+        append(slots, 2);
+        slots.write();
+        assertFalse(slots.dirty());
+
+        SlotFile loaded = new SlotFile(handler, Long.BYTES, 2);
+        ByteBuffer mapped = loaded.buffer();
+        assertEquals(2, loaded.size());
+        loaded.writable(loaded.size()).putLong(Long.BYTES, 3);
+        loaded.markDirty(1);
+
+        assertTrue(mapped != loaded.buffer());
+        assertEquals(2, mapped.getLong(Long.BYTES));
+        assertEquals(3, loaded.buffer().getLong(Long.BYTES));
+    }
+
+    @Test
+    public void changed_and_appended_slots_are_written() {
+        SlotFile slots = new SlotFile(handler, Long.BYTES, 2);
+        append(slots, 1);
+        append(slots, 2);
+        slots.write();
+
+        SlotFile loaded = new SlotFile(handler, Long.BYTES, 2);
+        loaded.writable(loaded.size()).putLong(Long.BYTES, 5);
+        loaded.markDirty(1);
+        append(loaded, 6);
+        assertTrue(loaded.dirty());
+        loaded.write();
+
+        SlotFile reloaded = new SlotFile(handler, Long.BYTES, 2);
+        assertEquals(3, reloaded.size());
+        assertEquals(1, reloaded.buffer().getLong(0));
+        assertEquals(5, reloaded.buffer().getLong(Long.BYTES));
+        assertEquals(6, reloaded.buffer().getLong(Long.BYTES * 2));
+    }
+}